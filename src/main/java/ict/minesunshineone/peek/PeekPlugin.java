@@ -9,13 +9,17 @@ import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import ict.minesunshineone.peek.command.PeekCommand;
+import ict.minesunshineone.peek.data.EndReason;
 import ict.minesunshineone.peek.data.PeekData;
 import ict.minesunshineone.peek.handler.PeekStateHandler;
 import ict.minesunshineone.peek.handler.PeekTargetHandler;
+import ict.minesunshineone.peek.listener.CameraModeListener;
 import ict.minesunshineone.peek.listener.PeekInteractionListener;
 import ict.minesunshineone.peek.listener.PeekListener;
 import ict.minesunshineone.peek.listener.PeekPacketListener;
+import ict.minesunshineone.peek.listener.RangeCheckListener;
 import ict.minesunshineone.peek.manager.CooldownManager;
+import ict.minesunshineone.peek.manager.HistoryManager;
 import java.util.UUID;
 import ict.minesunshineone.peek.manager.PrivacyManager;
 import ict.minesunshineone.peek.manager.StateManager;
@@ -35,10 +39,13 @@ public class PeekPlugin extends JavaPlugin {
     private CooldownManager cooldownManager;
     private PrivacyManager privacyManager;
     private StatisticsManager statisticsManager;
+    private HistoryManager historyManager;
     private PeekPacketListener packetListener;
 
     @Override
     public void onEnable() {
+        long startNanos = System.nanoTime();
+
         // 加载配置文件
         saveDefaultConfig();
         validateConfig();
@@ -51,6 +58,7 @@ public class PeekPlugin extends JavaPlugin {
         this.cooldownManager = new CooldownManager(this);
         this.privacyManager = new PrivacyManager(this);
         this.statisticsManager = new StatisticsManager(this);
+        this.historyManager = new HistoryManager(this);
 
         // 如果服务器有ProtocolLib，初始化数据包监听器
         if (getServer().getPluginManager().getPlugin("ProtocolLib") != null) {
@@ -71,13 +79,17 @@ public class PeekPlugin extends JavaPlugin {
         // 注册监听器
         getServer().getPluginManager().registerEvents(new PeekListener(this), this);
         getServer().getPluginManager().registerEvents(new PeekInteractionListener(this), this);
+        getServer().getPluginManager().registerEvents(new RangeCheckListener(stateHandler.getRangeChecker()), this);
+        if (stateHandler.isCameraMode()) {
+            getServer().getPluginManager().registerEvents(new CameraModeListener(stateHandler), this);
+        }
 
         // 如果有PlaceholderAPI，注册变量
         if (getServer().getPluginManager().getPlugin("PlaceholderAPI") != null) {
             new PeekPlaceholderExpansion(this).register();
         }
 
-        getLogger().info("Peek插件已启用！");
+        getLogger().info(String.format("Peek插件已启用！耗时 %.1f ms", (System.nanoTime() - startNanos) / 1_000_000.0));
     }
 
     @Override
@@ -98,6 +110,7 @@ public class PeekPlugin extends JavaPlugin {
                 // 记录统计
                 long duration = (System.currentTimeMillis() - data.getStartTime()) / 1000;
                 statisticsManager.recordPeekEnd(player, duration);
+                historyManager.record(player.getUniqueId(), data, EndReason.SHUTDOWN);
 
                 if (!player.isDead()) {
                     try {
@@ -144,6 +157,15 @@ public class PeekPlugin extends JavaPlugin {
             statisticsManager.shutdown();
         }
 
+        if (historyManager != null) {
+            historyManager.shutdown();
+        }
+
+        if (stateManager != null) {
+            // 在所有恢复操作完成后关闭状态日志，确保 END 记录已写入
+            stateManager.shutdown();
+        }
+
         // 注意：隐私管理器现在使用 PersistentData，无需手动保存
         // 数据会自动随玩家数据保存，支持 HuskSync 等跨服同步插件
 
@@ -164,12 +186,27 @@ public class PeekPlugin extends JavaPlugin {
         defaults.put("limits.cooldowns", 60);
         defaults.put("statistics.enabled", true);
         defaults.put("statistics.save-interval", 600);
+        defaults.put("statistics.snapshot-every", 12);
+        defaults.put("statistics.storage", "sqlite");
+        defaults.put("statistics.offline-cache-size", 500);
+        defaults.put("statistics.leaderboard-size", 100);
         defaults.put("debug", false);
         defaults.put("limits.max-peek-distance", 50.0);
         defaults.put("limits.block-container-interaction", false);
         defaults.put("privacy.request-timeout", 30);
         defaults.put("privacy.cooldown.enabled", true);
         defaults.put("privacy.cooldown.duration", 60);
+        defaults.put("state.journal-compact-threshold", 256);
+        defaults.put("range-check.mode", "polling");
+        defaults.put("range-check.max-speed", 2.0);
+        defaults.put("range-check.max-interval", 10);
+        defaults.put("view.mode", "teleport");
+        defaults.put("prewarm.enabled", true);
+        defaults.put("prewarm.radius", 1);
+        defaults.put("prewarm.timeout", 3000);
+        defaults.put("history.enabled", true);
+        defaults.put("history.rotate-records", 100000);
+        defaults.put("history.max-files", 30);
 
         // 声音设置
         defaults.put("sounds.start-peek", "BLOCK_NOTE_BLOCK_PLING");
@@ -234,6 +271,10 @@ public class PeekPlugin extends JavaPlugin {
         return statisticsManager;
     }
 
+    public HistoryManager getHistoryManager() {
+        return historyManager;
+    }
+
     /**
      * 调试模式下输出日志（仅当配置 debug=true 时）。
      * 各处理器共用此实现，避免重复的调试日志样板代码。
@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -13,6 +14,11 @@ import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 
 import ict.minesunshineone.peek.PeekPlugin;
+import ict.minesunshineone.peek.handler.ChunkPrewarmer;
+import ict.minesunshineone.peek.handler.RangeChecker;
+import ict.minesunshineone.peek.storage.StatsExporter;
+import ict.minesunshineone.peek.storage.StatsMetric;
+import ict.minesunshineone.peek.util.TimingStats;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.event.HoverEvent;
@@ -21,6 +27,8 @@ import net.kyori.adventure.text.format.TextDecoration;
 
 public class PeekCommand implements CommandExecutor, TabCompleter {
 
+    private static final int TOP_LINES = 10;
+
     private final PeekPlugin plugin;
 
     public PeekCommand(PeekPlugin plugin) {
@@ -49,6 +57,14 @@ public class PeekCommand implements CommandExecutor, TabCompleter {
                 handleExit(player);
             case "stats" ->
                 handleStats(player);
+            case "top" ->
+                handleTop(player, args);
+            case "history" ->
+                handleHistory(player, args);
+            case "export" ->
+                handleExport(player, args);
+            case "metrics" ->
+                handleMetrics(player);
             case "privacy" ->
                 handlePrivacy(player);
             case "accept" ->
@@ -94,6 +110,89 @@ public class PeekCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    private boolean handleTop(Player player, String[] args) {
+        if (!player.hasPermission("peek.stats")) {
+            plugin.getMessages().send(player, "no-permission");
+            return true;
+        }
+
+        StatsMetric metric = StatsMetric.PEEK_COUNT;
+        if (args.length > 1) {
+            metric = StatsMetric.fromKey(args[1]);
+            if (metric == null) {
+                plugin.getMessages().send(player, "stats-top-invalid-metric", "metric", args[1]);
+                return true;
+            }
+        }
+
+        plugin.getStatisticsManager().showTop(player, metric, TOP_LINES);
+        return true;
+    }
+
+    private boolean handleHistory(Player player, String[] args) {
+        if (!player.hasPermission("peek.history")) {
+            plugin.getMessages().send(player, "no-permission");
+            return true;
+        }
+        if (args.length < 2) {
+            plugin.getMessages().send(player, "history-usage");
+            return true;
+        }
+
+        // 只查找服务器见过的玩家，避免按名字向 Mojang 发起阻塞请求
+        OfflinePlayer target = plugin.getServer().getOfflinePlayerIfCached(args[1]);
+        if (target == null) {
+            plugin.getMessages().send(player, "player-not-found", "player", args[1]);
+            return true;
+        }
+
+        plugin.getHistoryManager().showHistory(player, target);
+        return true;
+    }
+
+    private boolean handleExport(Player player, String[] args) {
+        if (!player.hasPermission("peek.export")) {
+            plugin.getMessages().send(player, "no-permission");
+            return true;
+        }
+
+        StatsExporter.Format format = args.length > 1 ? StatsExporter.Format.fromKey(args[1]) : null;
+        if (format == null) {
+            plugin.getMessages().send(player, "export-usage");
+            return true;
+        }
+
+        plugin.getStatisticsManager().exportStats(player, format);
+        return true;
+    }
+
+    private boolean handleMetrics(Player player) {
+        if (!player.hasPermission("peek.metrics")) {
+            plugin.getMessages().send(player, "no-permission");
+            return true;
+        }
+
+        RangeChecker rangeChecker = plugin.getStateHandler().getRangeChecker();
+        plugin.getMessages().send(player, "metrics-header");
+        plugin.getMessages().send(player, "metrics-range-check",
+                "sessions", String.valueOf(rangeChecker.getSessionCount()),
+                "targets", String.valueOf(rangeChecker.getTrackedTargetCount()),
+                "batches", String.valueOf(rangeChecker.getLastBatchCount()));
+        plugin.getMessages().send(player, "metrics-range-check-timing", rangeChecker.getTiming().toPlaceholders());
+        plugin.getMessages().send(player, "metrics-peek-entry",
+                plugin.getStateHandler().getEntryTiming().toPlaceholders());
+        plugin.getMessages().send(player, "metrics-world-hop",
+                plugin.getStateHandler().getHopTiming().toPlaceholders());
+        ChunkPrewarmer prewarmer = plugin.getStateHandler().getChunkPrewarmer();
+        TimingStats.Snapshot prewarmTiming = prewarmer.getTiming();
+        plugin.getMessages().send(player, "metrics-chunk-prewarm",
+                "count", String.valueOf(prewarmTiming.count()),
+                "avg", String.valueOf(prewarmTiming.averageNanos() / 1_000_000),
+                "max", String.valueOf(prewarmTiming.maxNanos() / 1_000_000),
+                "timeouts", String.valueOf(prewarmer.getTimeoutCount()));
+        return true;
+    }
+
     private boolean handlePrivacy(Player player) {
         plugin.getPrivacyManager().togglePrivateMode(player);
         return true;
@@ -205,6 +304,16 @@ public class PeekCommand implements CommandExecutor, TabCompleter {
         sendCmd(player, "/peek deny", "拒绝观察请求");
         if (player.hasPermission("peek.stats")) {
             sendCmd(player, "/peek stats", "查看观察统计数据");
+            sendCmd(player, "/peek top [peek_count|peeked_count|total_duration]", "查看观察排行榜");
+        }
+        if (player.hasPermission("peek.history")) {
+            sendCmd(player, "/peek history <玩家名>", "查看玩家的观察记录");
+        }
+        if (player.hasPermission("peek.export")) {
+            sendCmd(player, "/peek export <csv|json>", "导出全部统计数据");
+        }
+        if (player.hasPermission("peek.metrics")) {
+            sendCmd(player, "/peek metrics", "查看插件运行指标");
         }
 
         player.sendMessage(Component.empty());
@@ -238,6 +347,16 @@ public class PeekCommand implements CommandExecutor, TabCompleter {
             List<String> completions = new ArrayList<>();
             completions.add("exit");
             completions.add("stats");
+            completions.add("top");
+            if (sender.hasPermission("peek.history")) {
+                completions.add("history");
+            }
+            if (sender.hasPermission("peek.export")) {
+                completions.add("export");
+            }
+            if (sender.hasPermission("peek.metrics")) {
+                completions.add("metrics");
+            }
             completions.add("privacy");
             completions.add("accept");
             completions.add("deny");
@@ -257,6 +376,33 @@ public class PeekCommand implements CommandExecutor, TabCompleter {
                     .collect(Collectors.toList());
         }
 
+        if (args.length == 2 && args[0].equalsIgnoreCase("top")) {
+            List<String> completions = new ArrayList<>();
+            for (StatsMetric metric : StatsMetric.values()) {
+                if (metric.getKey().startsWith(args[1].toLowerCase())) {
+                    completions.add(metric.getKey());
+                }
+            }
+            return completions;
+        }
+
+        if (args.length == 2 && args[0].equalsIgnoreCase("export") && sender.hasPermission("peek.export")) {
+            List<String> completions = new ArrayList<>();
+            for (StatsExporter.Format format : StatsExporter.Format.values()) {
+                if (format.getKey().startsWith(args[1].toLowerCase())) {
+                    completions.add(format.getKey());
+                }
+            }
+            return completions;
+        }
+
+        if (args.length == 2 && args[0].equalsIgnoreCase("history") && sender.hasPermission("peek.history")) {
+            return plugin.getServer().getOnlinePlayers().stream()
+                    .map(Player::getName)
+                    .filter(name -> name.toLowerCase().startsWith(args[1].toLowerCase()))
+                    .collect(Collectors.toList());
+        }
+
         return Collections.emptyList();
     }
 }
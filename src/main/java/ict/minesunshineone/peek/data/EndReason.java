@@ -0,0 +1,53 @@
+package ict.minesunshineone.peek.data;
+
+/**
+ * Peek 会话结束的原因，写入会话历史
+ * code 为历史日志中的存储值，已写入的值不能修改或复用。
+ */
+public enum EndReason {
+
+    EXIT(0, "exit"),
+    RANGE_EXCEEDED(1, "range-exceeded"),
+    WORLD_CHANGE(2, "world-change"),
+    TARGET_OFFLINE(3, "target-offline"),
+    DEATH(4, "death"),
+    PEEKER_OFFLINE(5, "peeker-offline"),
+    SHUTDOWN(6, "shutdown"),
+    ERROR(7, "error");
+
+    private static final EndReason[] BY_CODE = new EndReason[8];
+
+    static {
+        for (EndReason reason : values()) {
+            BY_CODE[reason.code] = reason;
+        }
+    }
+
+    private final byte code;
+    private final String key;
+
+    EndReason(int code, String key) {
+        this.code = (byte) code;
+        this.key = key;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * 语言文件中 end-reason-&lt;key&gt; 的后缀
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 按存储值查找
+     *
+     * @return 对应的原因，未知的值返回 null
+     */
+    public static EndReason fromCode(byte code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
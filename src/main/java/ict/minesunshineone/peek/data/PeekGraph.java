@@ -0,0 +1,417 @@
+package ict.minesunshineone.peek.data;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 观察关系图：记录每对（观察者, 被观察者）的观察次数
+ * 玩家 UUID 先被映射为连续的 int 编号（开放寻址的原始类型索引），每对关系是只增不减的边数组中的一行
+ * （观察者编号、被观察者编号、次数三列，按页存放在 int[] 中），另有 (观察者, 被观察者) -> 边编号的开放寻址索引，
+ * 以及每名玩家的出边、入边编号列表。不为任何玩家或关系创建对象。
+ *
+ * <p>已有关系的累加只查索引（乐观读）后原子加计数，不加锁；只有新玩家、新关系的登记需要写锁。
+ * 单个玩家的排行只读取该玩家的边列表，耗时与其关系数成正比；{@link #snapshot()} 不复制数据、不加锁，
+ * 写盘与导出期间观察开始不会被阻塞。
+ */
+public final class PeekGraph {
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // 边的列号
+    private static final int PEEKER = 0;
+    private static final int TARGET = 1;
+    private static final int COUNT = 2;
+    private static final int COLUMNS = 3;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final StampedLock lock = new StampedLock();
+
+    // 玩家编号 -> UUID；扩容时整体替换，读取方先读数量再读数组，拿到的数组一定包含这些编号
+    private volatile long[] mostBits = new long[64];
+    private volatile long[] leastBits = new long[64];
+    private volatile int playerCount;
+    // UUID -> 编号 + 1 的开放寻址索引，0 表示空位；由 lock 保护
+    private int[] playerIndex = new int[128];
+
+    // 边按页存放，页只增不减，已发布的页不会被替换
+    private volatile int[][] edgePages = new int[0][];
+    private volatile int edgeCount;
+    // (观察者, 被观察者) -> 边编号 + 1 的开放寻址索引；由 lock 保护
+    private int[] edgeIndex = new int[1024];
+
+    // 每名玩家的出边（作为观察者）与入边（作为被观察者）编号；由 lock 保护
+    private int[][] outEdges = new int[64][];
+    private int[] outDegree = new int[64];
+    private int[][] inEdges = new int[64][];
+    private int[] inDegree = new int[64];
+
+    /**
+     * 获取玩家编号，首次出现时分配新编号
+     */
+    public int intern(UUID uuid) {
+        int index = findPlayer(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (index >= 0) {
+            return index;
+        }
+        long stamp = lock.writeLock();
+        try {
+            return internPlayerLocked(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void increment(UUID peeker, UUID target) {
+        add(intern(peeker), intern(target), 1);
+    }
+
+    /**
+     * 按编号累加观察次数
+     */
+    public void add(int peekerIndex, int targetIndex, int amount) {
+        int edge = findEdge(peekerIndex, targetIndex);
+        if (edge < 0) {
+            long stamp = lock.writeLock();
+            try {
+                edge = internEdgeLocked(peekerIndex, targetIndex);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        INTS.getAndAdd(edgePages[edge >>> PAGE_SHIFT], offset(COUNT, edge), amount);
+    }
+
+    /**
+     * 该玩家最常观察的 k 名玩家，按次数从高到低
+     */
+    public List<PairCount> topTargets(UUID peeker, int k) {
+        return top(peeker, k, true);
+    }
+
+    /**
+     * 最常观察该玩家的 k 名玩家，按次数从高到低
+     */
+    public List<PairCount> topWatchers(UUID target, int k) {
+        return top(target, k, false);
+    }
+
+    public int pairCount() {
+        return edgeCount;
+    }
+
+    /**
+     * 当前数据的只读视图，供后台线程写盘或导出
+     * 不复制数据：视图固定了创建时的玩家数与关系数，之后新增的玩家与关系不可见；次数读取的是最新值。
+     */
+    public Snapshot snapshot() {
+        // 先读关系数再读玩家数：关系登记前双方已登记，视图内的关系引用的编号一定在视图内
+        int pairs = edgeCount;
+        int players = playerCount;
+        return new Snapshot(players, mostBits, leastBits, pairs, edgePages);
+    }
+
+    // ==================== 私有方法 ====================
+
+    private List<PairCount> top(UUID player, int k, boolean asPeeker) {
+        int index = findPlayer(player.getMostSignificantBits(), player.getLeastSignificantBits());
+        if (index < 0 || k <= 0) {
+            return List.of();
+        }
+
+        // 只复制该玩家的边编号，读锁持有时间与其关系数成正比
+        int[] edges;
+        long stamp = lock.readLock();
+        try {
+            int[] list = asPeeker ? outEdges[index] : inEdges[index];
+            int degree = asPeeker ? outDegree[index] : inDegree[index];
+            edges = list == null ? new int[0] : Arrays.copyOf(list, degree);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        // 保留 k 个最大值的小顶堆：{对方编号, 次数}
+        int[][] pages = edgePages;
+        PriorityQueue<int[]> heap = new PriorityQueue<>(k + 1, Comparator.comparingInt((int[] e) -> e[1]));
+        for (int edge : edges) {
+            int[] page = pages[edge >>> PAGE_SHIFT];
+            int count = (int) INTS.getVolatile(page, offset(COUNT, edge));
+            int other = page[offset(asPeeker ? TARGET : PEEKER, edge)];
+            heap.add(new int[]{other, count});
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+
+        long[] most = mostBits;
+        long[] least = leastBits;
+        List<PairCount> result = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            int[] entry = heap.poll();
+            result.add(new PairCount(new UUID(most[entry[0]], least[entry[0]]), entry[1]));
+        }
+        result.sort(Comparator.comparingInt(PairCount::count).reversed());
+        return result;
+    }
+
+    private int findPlayer(long most, long least) {
+        long stamp = lock.tryOptimisticRead();
+        int index = probePlayer(most, least);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                index = probePlayer(most, least);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 在玩家索引中查找；乐观读期间数据可能被并发修改，越界或探测过长时返回 -1，由调用方校验后重试
+     */
+    private int probePlayer(long most, long least) {
+        int[] table = playerIndex;
+        long[] currentMost = mostBits;
+        long[] currentLeast = leastBits;
+        int mask = table.length - 1;
+        int position = hash(most, least) & mask;
+        for (int i = 0; i < table.length; i++) {
+            int entry = table[position];
+            if (entry == 0) {
+                return -1;
+            }
+            int index = entry - 1;
+            if (index >= currentMost.length || index >= currentLeast.length) {
+                return -1;
+            }
+            if (currentMost[index] == most && currentLeast[index] == least) {
+                return index;
+            }
+            position = (position + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int internPlayerLocked(long most, long least) {
+        int existing = probePlayer(most, least);
+        if (existing >= 0) {
+            return existing;
+        }
+
+        int index = playerCount;
+        if (index == mostBits.length) {
+            int capacity = index * 2;
+            long[] grownMost = Arrays.copyOf(mostBits, capacity);
+            long[] grownLeast = Arrays.copyOf(leastBits, capacity);
+            grownMost[index] = most;
+            grownLeast[index] = least;
+            mostBits = grownMost;
+            leastBits = grownLeast;
+            outEdges = Arrays.copyOf(outEdges, capacity);
+            outDegree = Arrays.copyOf(outDegree, capacity);
+            inEdges = Arrays.copyOf(inEdges, capacity);
+            inDegree = Arrays.copyOf(inDegree, capacity);
+        } else {
+            mostBits[index] = most;
+            leastBits[index] = least;
+        }
+
+        if (index + 1 > playerIndex.length * LOAD_FACTOR) {
+            playerIndex = rehashPlayers(playerIndex.length * 2, index);
+        }
+        insert(playerIndex, hash(most, least), index);
+        playerCount = index + 1;
+        return index;
+    }
+
+    private int[] rehashPlayers(int capacity, int count) {
+        int[] grown = new int[capacity];
+        for (int index = 0; index < count; index++) {
+            insert(grown, hash(mostBits[index], leastBits[index]), index);
+        }
+        return grown;
+    }
+
+    private int findEdge(int peekerIndex, int targetIndex) {
+        long stamp = lock.tryOptimisticRead();
+        int edge = probeEdge(peekerIndex, targetIndex);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                edge = probeEdge(peekerIndex, targetIndex);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return edge;
+    }
+
+    /**
+     * 在关系索引中查找；与 {@link #probePlayer} 一样容忍乐观读期间的并发修改
+     */
+    private int probeEdge(int peekerIndex, int targetIndex) {
+        int[] table = edgeIndex;
+        int[][] pages = edgePages;
+        int mask = table.length - 1;
+        int position = hash(peekerIndex, targetIndex) & mask;
+        for (int i = 0; i < table.length; i++) {
+            int entry = table[position];
+            if (entry == 0) {
+                return -1;
+            }
+            int edge = entry - 1;
+            if ((edge >>> PAGE_SHIFT) >= pages.length) {
+                return -1;
+            }
+            int[] page = pages[edge >>> PAGE_SHIFT];
+            if (page[offset(PEEKER, edge)] == peekerIndex && page[offset(TARGET, edge)] == targetIndex) {
+                return edge;
+            }
+            position = (position + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int internEdgeLocked(int peekerIndex, int targetIndex) {
+        int existing = probeEdge(peekerIndex, targetIndex);
+        if (existing >= 0) {
+            return existing;
+        }
+
+        int edge = edgeCount;
+        int pageIndex = edge >>> PAGE_SHIFT;
+        if (pageIndex >= edgePages.length) {
+            int[][] grown = Arrays.copyOf(edgePages, pageIndex + 1);
+            grown[pageIndex] = new int[COLUMNS * PAGE_SIZE];
+            edgePages = grown;
+        }
+        int[] page = edgePages[pageIndex];
+        page[offset(PEEKER, edge)] = peekerIndex;
+        page[offset(TARGET, edge)] = targetIndex;
+
+        outEdges[peekerIndex] = append(outEdges[peekerIndex], outDegree[peekerIndex]++, edge);
+        inEdges[targetIndex] = append(inEdges[targetIndex], inDegree[targetIndex]++, edge);
+
+        if (edge + 1 > edgeIndex.length * LOAD_FACTOR) {
+            int[] grown = new int[edgeIndex.length * 2];
+            for (int i = 0; i < edge; i++) {
+                int[] p = edgePages[i >>> PAGE_SHIFT];
+                insert(grown, hash(p[offset(PEEKER, i)], p[offset(TARGET, i)]), i);
+            }
+            edgeIndex = grown;
+        }
+        insert(edgeIndex, hash(peekerIndex, targetIndex), edge);
+        edgeCount = edge + 1;
+        return edge;
+    }
+
+    private static int[] append(int[] list, int size, int value) {
+        if (list == null) {
+            list = new int[4];
+        } else if (size == list.length) {
+            list = Arrays.copyOf(list, size * 2);
+        }
+        list[size] = value;
+        return list;
+    }
+
+    private static void insert(int[] table, int hash, int value) {
+        int mask = table.length - 1;
+        int position = hash & mask;
+        while (table[position] != 0) {
+            position = (position + 1) & mask;
+        }
+        table[position] = value + 1;
+    }
+
+    private static int offset(int column, int edge) {
+        return (column << PAGE_SHIFT) | (edge & PAGE_MASK);
+    }
+
+    private static int hash(int peekerIndex, int targetIndex) {
+        return hash(((long) peekerIndex << 32) | (targetIndex & 0xFFFFFFFFL), 0L);
+    }
+
+    private static int hash(long most, long least) {
+        // MurmurHash3 的 64 位终结函数，打散相邻编号
+        long key = most ^ least;
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * 一名玩家及其观察次数
+     */
+    public record PairCount(UUID uuid, int count) {
+    }
+
+    /**
+     * 关系图的只读视图：编号 0 ~ playerCount()-1 的玩家与第 0 ~ pairCount()-1 对关系
+     * 按编号逐条读取，不复制数组，占用的内存与关系数无关。
+     */
+    public static final class Snapshot {
+
+        private final int playerCount;
+        private final long[] mostBits;
+        private final long[] leastBits;
+        private final int pairCount;
+        private final int[][] pages;
+
+        private Snapshot(int playerCount, long[] mostBits, long[] leastBits, int pairCount, int[][] pages) {
+            this.playerCount = playerCount;
+            this.mostBits = mostBits;
+            this.leastBits = leastBits;
+            this.pairCount = pairCount;
+            this.pages = pages;
+        }
+
+        public int playerCount() {
+            return playerCount;
+        }
+
+        public long mostBits(int index) {
+            return mostBits[index];
+        }
+
+        public long leastBits(int index) {
+            return leastBits[index];
+        }
+
+        public UUID uuid(int index) {
+            return new UUID(mostBits[index], leastBits[index]);
+        }
+
+        public int pairCount() {
+            return pairCount;
+        }
+
+        public int peeker(int pair) {
+            return pages[pair >>> PAGE_SHIFT][offset(PEEKER, pair)];
+        }
+
+        public int target(int pair) {
+            return pages[pair >>> PAGE_SHIFT][offset(TARGET, pair)];
+        }
+
+        public int count(int pair) {
+            return (int) INTS.getVolatile(pages[pair >>> PAGE_SHIFT], offset(COUNT, pair));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package ict.minesunshineone.peek.data;
+
+import java.util.UUID;
+
+/**
+ * 某一 tick 时玩家位置的不可变副本
+ *
+ * @param worldId 所在世界的 UUID
+ * @param x       X 坐标
+ * @param y       Y 坐标
+ * @param z       Z 坐标
+ */
+public record PositionSnapshot(UUID worldId, double x, double y, double z) {
+
+    /**
+     * 与给定坐标的平方距离
+     */
+    public double distanceSquared(double otherX, double otherY, double otherZ) {
+        double dx = x - otherX;
+        double dy = y - otherY;
+        double dz = z - otherZ;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
@@ -0,0 +1,15 @@
+package ict.minesunshineone.peek.data;
+
+import java.util.UUID;
+
+/**
+ * 一次已结束的 Peek 会话
+ *
+ * @param peeker          观察者
+ * @param target          被观察者
+ * @param startTime       开始时间（毫秒时间戳）
+ * @param durationSeconds 持续时长（秒）
+ * @param reason          结束原因
+ */
+public record SessionRecord(UUID peeker, UUID target, long startTime, int durationSeconds, EndReason reason) {
+}
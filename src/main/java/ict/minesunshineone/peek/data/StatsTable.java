@@ -0,0 +1,316 @@
+package ict.minesunshineone.peek.data;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+import ict.minesunshineone.peek.storage.StatsMetric;
+import ict.minesunshineone.peek.storage.StatsRecord;
+
+/**
+ * 按列存放的累计统计表
+ * 每名玩家占用一个 int 编号（行），各列按页存放在 long[] 中：一页 1024 行，页内按列连续排列，
+ * 每名玩家共 48 字节，不为每名玩家创建任何对象。计数通过 VarHandle 原子累加，不加锁；
+ * 编号的分配与回收由 StampedLock 保护，查找编号走乐观读，通常也不加锁。
+ *
+ * <p>编号回收后会分配给其他玩家，调用方只能在玩家不会被移除期间（在线，或持有写锁的方法内）使用编号。
+ */
+public final class StatsTable {
+
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // 列号
+    private static final int PEEK_COUNT = 0;
+    private static final int PEEKED_COUNT = 1;
+    private static final int TOTAL_DURATION = 2;
+    private static final int UUID_MOST = 3;
+    private static final int UUID_LEAST = 4;
+    private static final int FLAGS = 5;
+    private static final int COLUMNS = 6;
+
+    private static final long FLAG_LOADED = 1L;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final StampedLock lock = new StampedLock();
+    // 页只增不减，已发布的页不会被替换，读取方拿到的页引用始终有效
+    private volatile long[][] pages = new long[0][];
+    // UUID -> 编号 + 1 的开放寻址索引，0 表示空位
+    private int[] index = new int[64];
+    private int size;
+    private int nextSlot;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    /**
+     * 查找玩家的编号
+     *
+     * @return 编号，不存在时返回 -1
+     */
+    public int find(UUID uuid) {
+        long stamp = lock.tryOptimisticRead();
+        int slot = probe(uuid);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                slot = probe(uuid);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * 获取玩家的编号，不存在时分配新行
+     */
+    public int intern(UUID uuid) {
+        int slot = find(uuid);
+        if (slot >= 0) {
+            return slot;
+        }
+        long stamp = lock.writeLock();
+        try {
+            return internLocked(uuid);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void add(int slot, StatsMetric metric, long delta) {
+        LONGS.getAndAdd(pages[slot >>> PAGE_SHIFT], offset(columnOf(metric), slot), delta);
+    }
+
+    public long get(int slot, StatsMetric metric) {
+        return (long) LONGS.getVolatile(pages[slot >>> PAGE_SHIFT], offset(columnOf(metric), slot));
+    }
+
+    /**
+     * 是否已合并存储中的值；未合并前该行的计数只是加载期间产生的增量
+     */
+    public boolean isLoaded(int slot) {
+        return ((long) LONGS.getVolatile(pages[slot >>> PAGE_SHIFT], offset(FLAGS, slot)) & FLAG_LOADED) != 0;
+    }
+
+    /**
+     * 把存储中读取的值累加到该玩家的行上并标记为已加载；已加载时不做任何事
+     *
+     * @param record 存储中的记录，玩家没有记录时为 null
+     * @return 玩家的编号
+     */
+    public int mergeLoaded(UUID uuid, StatsRecord record) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = internLocked(uuid);
+            long[] page = pages[slot >>> PAGE_SHIFT];
+            if (((long) LONGS.getVolatile(page, offset(FLAGS, slot)) & FLAG_LOADED) != 0) {
+                return slot;
+            }
+            if (record != null) {
+                LONGS.getAndAdd(page, offset(PEEK_COUNT, slot), (long) record.peekCount());
+                LONGS.getAndAdd(page, offset(PEEKED_COUNT, slot), (long) record.peekedCount());
+                LONGS.getAndAdd(page, offset(TOTAL_DURATION, slot), record.totalDuration());
+            }
+            LONGS.setVolatile(page, offset(FLAGS, slot), FLAG_LOADED);
+            return slot;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 编号当前是否仍属于该玩家；不加锁，玩家被移除或编号被回收后返回 false
+     */
+    public boolean owns(int slot, UUID uuid) {
+        long[][] currentPages = pages;
+        if (slot < 0 || (slot >>> PAGE_SHIFT) >= currentPages.length) {
+            return false;
+        }
+        long[] page = currentPages[slot >>> PAGE_SHIFT];
+        return (long) LONGS.getVolatile(page, offset(UUID_MOST, slot)) == uuid.getMostSignificantBits()
+                && (long) LONGS.getVolatile(page, offset(UUID_LEAST, slot)) == uuid.getLeastSignificantBits();
+    }
+
+    public StatsRecord toRecord(int slot, UUID uuid) {
+        return new StatsRecord(uuid, (int) get(slot, StatsMetric.PEEK_COUNT), (int) get(slot, StatsMetric.PEEKED_COUNT),
+                get(slot, StatsMetric.TOTAL_DURATION));
+    }
+
+    /**
+     * 移除玩家并回收其编号
+     *
+     * @return 玩家是否存在
+     */
+    public boolean remove(UUID uuid) {
+        long stamp = lock.writeLock();
+        try {
+            int mask = index.length - 1;
+            int position = hash(uuid) & mask;
+            while (index[position] != 0) {
+                int slot = index[position] - 1;
+                if (matches(slot, uuid)) {
+                    deleteAt(position);
+                    clearRow(slot);
+                    if (freeCount == freeSlots.length) {
+                        freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+                    }
+                    freeSlots[freeCount++] = slot;
+                    size--;
+                    return true;
+                }
+                position = (position + 1) & mask;
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // ==================== 私有方法 ====================
+
+    /**
+     * 在索引中查找；乐观读期间数据可能被并发修改，越界或探测过长时返回 -1，由调用方校验后重试
+     */
+    private int probe(UUID uuid) {
+        int[] table = index;
+        long[][] currentPages = pages;
+        int mask = table.length - 1;
+        int position = hash(uuid) & mask;
+        for (int i = 0; i < table.length; i++) {
+            int entry = table[position];
+            if (entry == 0) {
+                return -1;
+            }
+            int slot = entry - 1;
+            if ((slot >>> PAGE_SHIFT) >= currentPages.length) {
+                return -1;
+            }
+            long[] page = currentPages[slot >>> PAGE_SHIFT];
+            if (page[offset(UUID_MOST, slot)] == uuid.getMostSignificantBits()
+                    && page[offset(UUID_LEAST, slot)] == uuid.getLeastSignificantBits()) {
+                return slot;
+            }
+            position = (position + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int internLocked(UUID uuid) {
+        int existing = probe(uuid);
+        if (existing >= 0) {
+            return existing;
+        }
+
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot++;
+        int pageIndex = slot >>> PAGE_SHIFT;
+        if (pageIndex >= pages.length) {
+            long[][] grown = Arrays.copyOf(pages, pageIndex + 1);
+            grown[pageIndex] = new long[COLUMNS * PAGE_SIZE];
+            pages = grown;
+        }
+        long[] page = pages[pageIndex];
+        page[offset(UUID_MOST, slot)] = uuid.getMostSignificantBits();
+        page[offset(UUID_LEAST, slot)] = uuid.getLeastSignificantBits();
+
+        if (++size > index.length / 2) {
+            rehash(index.length * 2);
+        }
+        insert(index, uuid, slot);
+        return slot;
+    }
+
+    private boolean matches(int slot, UUID uuid) {
+        long[] page = pages[slot >>> PAGE_SHIFT];
+        return page[offset(UUID_MOST, slot)] == uuid.getMostSignificantBits()
+                && page[offset(UUID_LEAST, slot)] == uuid.getLeastSignificantBits();
+    }
+
+    private void clearRow(int slot) {
+        long[] page = pages[slot >>> PAGE_SHIFT];
+        for (int column = 0; column < COLUMNS; column++) {
+            LONGS.setVolatile(page, offset(column, slot), 0L);
+        }
+    }
+
+    /**
+     * 删除索引项并把后续探测链上的项前移，保持线性探测不出现空洞
+     */
+    private void deleteAt(int position) {
+        int mask = index.length - 1;
+        int hole = position;
+        int next = (hole + 1) & mask;
+        while (index[next] != 0) {
+            int slot = index[next] - 1;
+            long[] page = pages[slot >>> PAGE_SHIFT];
+            int home = hash(page[offset(UUID_MOST, slot)], page[offset(UUID_LEAST, slot)]) & mask;
+            // home 不在 (hole, next] 区间内时，该项可以移入空洞
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        index[hole] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] grown = new int[capacity];
+        for (int entry : index) {
+            if (entry != 0) {
+                int slot = entry - 1;
+                long[] page = pages[slot >>> PAGE_SHIFT];
+                insert(grown, new UUID(page[offset(UUID_MOST, slot)], page[offset(UUID_LEAST, slot)]), slot);
+            }
+        }
+        index = grown;
+    }
+
+    private static void insert(int[] table, UUID uuid, int slot) {
+        int mask = table.length - 1;
+        int position = hash(uuid) & mask;
+        while (table[position] != 0) {
+            position = (position + 1) & mask;
+        }
+        table[position] = slot + 1;
+    }
+
+    private static int offset(int column, int slot) {
+        return (column << PAGE_SHIFT) | (slot & PAGE_MASK);
+    }
+
+    private static int columnOf(StatsMetric metric) {
+        return switch (metric) {
+            case PEEK_COUNT -> PEEK_COUNT;
+            case PEEKED_COUNT -> PEEKED_COUNT;
+            case TOTAL_DURATION -> TOTAL_DURATION;
+        };
+    }
+
+    private static int hash(UUID uuid) {
+        return hash(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    private static int hash(long most, long least) {
+        // MurmurHash3 的 64 位终结函数
+        long key = most ^ least;
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
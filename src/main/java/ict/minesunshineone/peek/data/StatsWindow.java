@@ -0,0 +1,171 @@
+package ict.minesunshineone.peek.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import ict.minesunshineone.peek.storage.StatsMetric;
+
+/**
+ * 单个玩家最近 7 天的按小时统计
+ * 三个指标各用一个长度 168 的 int 环形数组，每小时一个桶；
+ * 写入或查询时才把环推进到当前小时并清空过期的桶，不需要定时任务。
+ * 观察时长按观察结束所在的小时计入。
+ */
+public final class StatsWindow {
+
+    public static final int HOURS_PER_DAY = 24;
+    public static final int BUCKETS = 7 * HOURS_PER_DAY;
+
+    private static final long MILLIS_PER_HOUR = 3_600_000L;
+
+    private final int[] peekCounts = new int[BUCKETS];
+    private final int[] peekedCounts = new int[BUCKETS];
+    private final int[] durations = new int[BUCKETS];
+    // 最新的桶对应的小时（自纪元起的小时数）
+    private long headHour = Long.MIN_VALUE;
+
+    public static long hourOf(long epochMillis) {
+        return Math.floorDiv(epochMillis, MILLIS_PER_HOUR);
+    }
+
+    /**
+     * 在指定小时的桶上累加
+     */
+    public synchronized void add(long hour, int peekCount, int peekedCount, int durationSeconds) {
+        advance(hour);
+        if (hour <= headHour - BUCKETS) {
+            // 已超出窗口
+            return;
+        }
+        int index = indexOf(hour);
+        peekCounts[index] += peekCount;
+        peekedCounts[index] += peekedCount;
+        durations[index] += durationSeconds;
+    }
+
+    /**
+     * 统计截至 nowHour（含）最近 hours 个小时内的指标总和
+     */
+    public synchronized long sum(StatsMetric metric, int hours, long nowHour) {
+        advance(nowHour);
+        int[] buckets = bucketsOf(metric);
+        int span = Math.min(Math.max(hours, 0), BUCKETS);
+        long total = 0;
+        for (int i = 0; i < span; i++) {
+            total += buckets[indexOf(headHour - i)];
+        }
+        return total;
+    }
+
+    /**
+     * 推进到 nowHour 后窗口内是否已没有任何记录
+     */
+    public synchronized boolean isEmpty(long nowHour) {
+        advance(nowHour);
+        for (int i = 0; i < BUCKETS; i++) {
+            if (peekCounts[i] != 0 || peekedCounts[i] != 0 || durations[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把另一个窗口的记录累加到本窗口（合并磁盘上读取的记录与加载期间产生的新记录）
+     */
+    public void addAll(StatsWindow other) {
+        long otherHead;
+        int[] otherPeek;
+        int[] otherPeeked;
+        int[] otherDurations;
+        synchronized (other) {
+            otherHead = other.headHour;
+            otherPeek = other.peekCounts.clone();
+            otherPeeked = other.peekedCounts.clone();
+            otherDurations = other.durations.clone();
+        }
+        if (otherHead == Long.MIN_VALUE) {
+            return;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            long hour = otherHead - i;
+            int index = indexOf(hour);
+            if (otherPeek[index] != 0 || otherPeeked[index] != 0 || otherDurations[index] != 0) {
+                add(hour, otherPeek[index], otherPeeked[index], otherDurations[index]);
+            }
+        }
+    }
+
+    /**
+     * 写入非空的桶：long 最新小时 | short 桶数 | 每个桶（short 距最新小时的偏移 | int × 3）
+     */
+    public synchronized void encode(ByteBuffer out) {
+        out.putLong(headHour);
+        int countPosition = out.position();
+        out.putShort((short) 0);
+        short count = 0;
+        for (int offset = 0; offset < BUCKETS; offset++) {
+            int index = indexOf(headHour - offset);
+            if (peekCounts[index] == 0 && peekedCounts[index] == 0 && durations[index] == 0) {
+                continue;
+            }
+            out.putShort((short) offset);
+            out.putInt(peekCounts[index]);
+            out.putInt(peekedCounts[index]);
+            out.putInt(durations[index]);
+            count++;
+        }
+        out.putShort(countPosition, count);
+    }
+
+    public static StatsWindow decode(ByteBuffer in) {
+        StatsWindow window = new StatsWindow();
+        long head = in.getLong();
+        int count = in.getShort();
+        for (int i = 0; i < count; i++) {
+            int offset = in.getShort();
+            window.add(head - offset, in.getInt(), in.getInt(), in.getInt());
+        }
+        return window;
+    }
+
+    /**
+     * 编码后的最大字节数
+     */
+    public static int maxEncodedSize() {
+        return 8 + 2 + BUCKETS * (2 + 4 + 4 + 4);
+    }
+
+    // ==================== 私有方法 ====================
+
+    private void advance(long hour) {
+        if (hour <= headHour) {
+            return;
+        }
+        if (headHour == Long.MIN_VALUE || hour - headHour >= BUCKETS) {
+            Arrays.fill(peekCounts, 0);
+            Arrays.fill(peekedCounts, 0);
+            Arrays.fill(durations, 0);
+        } else {
+            for (long h = headHour + 1; h <= hour; h++) {
+                int index = indexOf(h);
+                peekCounts[index] = 0;
+                peekedCounts[index] = 0;
+                durations[index] = 0;
+            }
+        }
+        headHour = hour;
+    }
+
+    private int[] bucketsOf(StatsMetric metric) {
+        return switch (metric) {
+            case PEEK_COUNT -> peekCounts;
+            case PEEKED_COUNT -> peekedCounts;
+            case TOTAL_DURATION -> durations;
+        };
+    }
+
+    private static int indexOf(long hour) {
+        return (int) Math.floorMod(hour, (long) BUCKETS);
+    }
+}
@@ -11,7 +11,6 @@ import org.bukkit.boss.BossBar;
 import org.bukkit.entity.Player;
 
 import ict.minesunshineone.peek.PeekPlugin;
-import ict.minesunshineone.peek.data.PeekData;
 
 /**
  * 负责管理 Peek 模式下的 BossBar 显示
@@ -153,22 +152,6 @@ public class BossBarHandler {
         bar.setTitle(formatBossBarTitle(targetName, distance));
     }
 
-    /**
-     * 更新观察者的距离 BossBar（从 PeekData 获取目标信息）
-     * 
-     * @param peeker   观察者
-     * @param distance 当前距离
-     * @param data     PeekData 数据
-     */
-    public void updateDistanceBossBar(Player peeker, double distance, PeekData data) {
-        if (!enabled || data == null)
-            return;
-
-        Player target = plugin.getServer().getPlayer(data.getTargetUUID());
-        String targetName = target != null ? target.getName() : "未知";
-        updateDistanceBossBar(peeker, distance, targetName);
-    }
-
     /**
      * 移除观察者的距离 BossBar
      * 
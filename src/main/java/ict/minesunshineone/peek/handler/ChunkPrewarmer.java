@@ -0,0 +1,209 @@
+package ict.minesunshineone.peek.handler;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import ict.minesunshineone.peek.PeekPlugin;
+import ict.minesunshineone.peek.util.TimingStats;
+
+/**
+ * 传送前预加载目标周围的区块
+ * 在切换旁观模式之前异步加载目标所在区块及周围 radius 圈区块，观察者不会停在原地等待冷区块加载；
+ * 目标所在区块优先加载。等待超过 timeout 或加载失败时照常继续，由传送自行加载。
+ *
+ * <p>加载完成的区块会加上插件区块票据，直到调用方在传送落地后 {@link Area#release() 释放}，
+ * 期间即使目标离开、区块无人引用也不会被卸载。传送应使用 {@link Area#getLocation()}，即预加载时读取的位置。
+ * 插件票据每个区块只有一张、不计数，多名观察者同时预加载同一目标时由这里按区块计数，
+ * 最后一个持有者释放时才移除票据。
+ */
+public class ChunkPrewarmer {
+
+    private final PeekPlugin plugin;
+    private final boolean enabled;
+    private final int radius;
+    private final long timeoutMillis;
+
+    private final TimingStats timing = new TimingStats();
+    private final AtomicLong timeouts = new AtomicLong();
+    // 区块 -> 持有该区块票据的预加载区域数；同一区块的增减都在其所属的区域线程上执行
+    private final Map<ChunkKey, Integer> ticketHolders = new ConcurrentHashMap<>();
+
+    public ChunkPrewarmer(PeekPlugin plugin) {
+        this.plugin = plugin;
+        this.enabled = plugin.getConfig().getBoolean("prewarm.enabled", true);
+        this.radius = Math.max(0, Math.min(plugin.getConfig().getInt("prewarm.radius", 1), 4));
+        this.timeoutMillis = Math.max(1, plugin.getConfig().getLong("prewarm.timeout", 3000));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 预加载指定位置周围的区块；可在任意线程调用
+     *
+     * @return 加载完成、超时或失败时都正常完成的 future，结果为预加载的区域，调用方用完后必须释放；
+     *         未启用时直接返回已完成的 future，区域不持有任何票据
+     */
+    public CompletableFuture<Area> prewarm(Location location) {
+        World world = location.getWorld();
+        int centerX = location.getBlockX() >> 4;
+        int centerZ = location.getBlockZ() >> 4;
+        if (!enabled || world == null) {
+            return CompletableFuture.completedFuture(new Area(location.clone(), world, centerX, centerZ, -1));
+        }
+
+        long startNanos = System.nanoTime();
+        Area area = new Area(location.clone(), world, centerX, centerZ, radius);
+        int side = radius * 2 + 1;
+        CompletableFuture<?>[] loads = new CompletableFuture<?>[side * side];
+        int count = 0;
+        loads[count++] = world.getChunkAtAsyncUrgently(centerX, centerZ)
+                .thenRun(() -> area.hold(centerX, centerZ));
+        for (int dx = -radius; dx <= radius; dx++) {
+            for (int dz = -radius; dz <= radius; dz++) {
+                if (dx != 0 || dz != 0) {
+                    int chunkX = centerX + dx;
+                    int chunkZ = centerZ + dz;
+                    loads[count++] = world.getChunkAtAsync(chunkX, chunkZ)
+                            .thenRun(() -> area.hold(chunkX, chunkZ));
+                }
+            }
+        }
+
+        return CompletableFuture.allOf(loads)
+                .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .handle((ignored, ex) -> {
+                    if (ex == null) {
+                        timing.record(System.nanoTime() - startNanos);
+                    } else if (ex instanceof TimeoutException || ex.getCause() instanceof TimeoutException) {
+                        timeouts.incrementAndGet();
+                        logDebug("Chunk prewarm around %d,%d in %s timed out after %d ms",
+                                centerX, centerZ, world.getName(), timeoutMillis);
+                    } else {
+                        logDebug("Chunk prewarm around %d,%d in %s failed: %s",
+                                centerX, centerZ, world.getName(), ex.getMessage());
+                    }
+                    return area;
+                });
+    }
+
+    /**
+     * 成功完成的预加载耗时
+     */
+    public TimingStats.Snapshot getTiming() {
+        return timing.snapshot();
+    }
+
+    /**
+     * 超时后放弃等待的次数
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    private void logDebug(String message, Object... args) {
+        plugin.logDebug(message, args);
+    }
+
+    /**
+     * 区块所属的区域线程：增加持有计数，第一个持有者加上票据
+     */
+    private void addTicket(World world, int chunkX, int chunkZ) {
+        if (ticketHolders.merge(new ChunkKey(world.getUID(), chunkX, chunkZ), 1, Integer::sum) == 1) {
+            world.addPluginChunkTicket(chunkX, chunkZ, plugin);
+        }
+    }
+
+    /**
+     * 区块所属的区域线程：减少持有计数，最后一个持有者移除票据
+     */
+    private void removeTicket(World world, int chunkX, int chunkZ) {
+        ChunkKey key = new ChunkKey(world.getUID(), chunkX, chunkZ);
+        if (ticketHolders.computeIfPresent(key, (k, holders) -> holders > 1 ? holders - 1 : null) == null) {
+            world.removePluginChunkTicket(chunkX, chunkZ, plugin);
+        }
+    }
+
+    private record ChunkKey(UUID world, int x, int z) {
+    }
+
+    /**
+     * 一次预加载的区域：预加载时读取的位置与其周围持有票据的区块
+     */
+    public final class Area {
+
+        private final Location location;
+        private final World world;
+        private final int centerX;
+        private final int centerZ;
+        // 票据覆盖的半径，未预加载时为 -1
+        private final int radius;
+        private final AtomicBoolean released = new AtomicBoolean();
+        // 本区域已计入持有计数的区块（坐标打包为 long），释放时只减少这些区块的计数
+        private final Set<Long> held = ConcurrentHashMap.newKeySet();
+
+        private Area(Location location, World world, int centerX, int centerZ, int radius) {
+            this.location = location;
+            this.world = world;
+            this.centerX = centerX;
+            this.centerZ = centerZ;
+            this.radius = radius;
+        }
+
+        /**
+         * 预加载时读取的位置（副本）
+         */
+        public Location getLocation() {
+            return location.clone();
+        }
+
+        /**
+         * 释放全部区块票据；可重复调用，可在任意线程调用
+         */
+        public void release() {
+            if (radius < 0 || !released.compareAndSet(false, true)) {
+                return;
+            }
+            // 插件停用时服务端会移除全部插件票据，也不能再提交任务
+            if (!plugin.isEnabled()) {
+                return;
+            }
+            for (int dx = -radius; dx <= radius; dx++) {
+                for (int dz = -radius; dz <= radius; dz++) {
+                    int chunkX = centerX + dx;
+                    int chunkZ = centerZ + dz;
+                    plugin.getServer().getRegionScheduler().execute(plugin, world, chunkX, chunkZ, () -> {
+                        if (held.remove(pack(chunkX, chunkZ))) {
+                            removeTicket(world, chunkX, chunkZ);
+                        }
+                    });
+                }
+            }
+        }
+
+        /**
+         * 区块加载完成的回调在区块所属的区域线程上执行，与 release 提交的移除任务串行；
+         * 已释放后才加载完成的区块不再加票据
+         */
+        private void hold(int chunkX, int chunkZ) {
+            if (!released.get() && held.add(pack(chunkX, chunkZ))) {
+                addTicket(world, chunkX, chunkZ);
+            }
+        }
+
+        private static long pack(int chunkX, int chunkZ) {
+            return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+        }
+    }
+}
@@ -1,19 +1,27 @@
 package ict.minesunshineone.peek.handler;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import org.bukkit.GameMode;
 import org.bukkit.Location;
 import org.bukkit.Sound;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerTeleportEvent.TeleportCause;
 
 import ict.minesunshineone.peek.PeekPlugin;
+import ict.minesunshineone.peek.data.EndReason;
 import ict.minesunshineone.peek.data.PeekData;
+import ict.minesunshineone.peek.data.PositionSnapshot;
 import ict.minesunshineone.peek.util.PlayerStateUtil;
+import ict.minesunshineone.peek.util.TimingStats;
 
 /**
  * 核心 Peek 状态管理器
@@ -25,17 +33,34 @@ public class PeekStateHandler {
     // 使用 ConcurrentHashMap：activePeeks 会被 Netty(数据包)、区域线程、异步线程读取
     // synchronized(activePeeks) 仅用于"检查-修改"复合操作的原子性
     private final Map<UUID, PeekData> activePeeks = new ConcurrentHashMap<>();
+    // 反向索引：目标 -> 正在观察他的玩家；只在 activePeeks 锁内与 activePeeks 一起修改，读取无需加锁
+    private final Map<UUID, Set<UUID>> peekersByTarget = new ConcurrentHashMap<>();
 
     // 委托的处理器
     private final BossBarHandler bossBarHandler;
     private final RangeChecker rangeChecker;
     private final PlayerStateRestorer stateRestorer;
+    private final ChunkPrewarmer chunkPrewarmer;
+
+    // view.mode 为 camera 时以旁观视角附身目标，不做距离检查
+    private final boolean cameraMode;
+
+    // 完整进入流程（区块预加载 + 切换旁观模式 + 延迟传送，直到看到目标的首帧）与跨世界跟随各自的耗时，供 /peek metrics 对比
+    private final TimingStats entryTiming = new TimingStats();
+    private final TimingStats hopTiming = new TimingStats();
 
     public PeekStateHandler(PeekPlugin plugin) {
         this.plugin = plugin;
         this.bossBarHandler = new BossBarHandler(plugin);
         this.rangeChecker = new RangeChecker(plugin);
         this.stateRestorer = new PlayerStateRestorer(plugin);
+        this.chunkPrewarmer = new ChunkPrewarmer(plugin);
+
+        String viewMode = plugin.getConfig().getString("view.mode", "teleport");
+        this.cameraMode = "camera".equalsIgnoreCase(viewMode);
+        if (!cameraMode && !"teleport".equalsIgnoreCase(viewMode)) {
+            plugin.getLogger().warning(String.format("未知的观察方式 \"%s\"，使用 teleport", viewMode));
+        }
     }
 
     /**
@@ -72,26 +97,16 @@ public class PeekStateHandler {
                     peeker.getSaturation(),
                     peeker.getActivePotionEffects());
 
-            activePeeks.put(peeker.getUniqueId(), data);
+            putActive(peeker.getUniqueId(), data);
         }
 
-        plugin.getStateManager().savePlayerState(peeker, data);
-        plugin.getStatisticsManager().recordPeekStart(peeker, target);
-
-        teleportAndSetGameMode(peeker, target);
-
-        // 检查是否静默 peek（有 bypass 权限）
-        boolean silentPeek = plugin.getTargetHandler().shouldSilentPeek(peeker);
-
-        // 发送消息给观察者
-        plugin.getMessages().send(peeker, "peek-start", "player", target.getName());
-
-        // 只有非静默模式才通知目标
-        if (!silentPeek) {
-            plugin.getMessages().send(target, "being-peeked", "player", peeker.getName());
-            playSound(target, "start-peek");
-            updateActionBar(target);
-        }
+        // 状态落盘后才切换旁观模式：保存在写入线程完成，不阻塞当前区域线程。
+        // 统计与通知也放在保存成功之后，保存失败而取消的会话不留下任何痕迹
+        plugin.getStateManager().savePlayerState(peeker, data).whenComplete((ignored, ex)
+                -> afterStateSaved(peeker, data, ex, () -> {
+                    announcePeekStart(peeker, target, data);
+                    teleportAndSetGameMode(peeker, target);
+                }));
     }
 
     /**
@@ -139,18 +154,19 @@ public class PeekStateHandler {
                         peeker.getSaturation(),
                         peeker.getActivePotionEffects());
 
-                activePeeks.put(peeker.getUniqueId(), data);
-                plugin.getStateManager().savePlayerState(peeker, data);
-                plugin.getStatisticsManager().recordPeekStart(peeker, peeker); // 统计中目标也是自己
+                putActive(peeker.getUniqueId(), data);
 
-                // 设置为观察者模式但不传送
-                setSelfPeekGameMode(peeker);
-
-                // 发送消息
-                plugin.getMessages().send(peeker, "self-peek-start");
-
-                // 播放声音
-                playSound(peeker, "start-peek");
+                // 状态落盘后再计入统计、通知并设置为观察者模式（不传送）
+                plugin.getStateManager().savePlayerState(peeker, data).whenComplete((ignored, ex)
+                        -> afterStateSaved(peeker, data, ex, () -> {
+                            if (sessionEnded(peeker, data)) {
+                                return;
+                            }
+                            plugin.getStatisticsManager().recordPeekStart(peeker, peeker); // 统计中目标也是自己
+                            plugin.getMessages().send(peeker, "self-peek-start");
+                            playSound(peeker, "start-peek");
+                            setSelfPeekGameMode(peeker);
+                        }));
 
                 // 启动self距离检查器，确保不会超出距离限制
                 // 创建 BossBar 并启动自我观察距离检查器
@@ -167,7 +183,7 @@ public class PeekStateHandler {
                 }
 
                 // 清理可能的残留状态
-                activePeeks.remove(peeker.getUniqueId());
+                removeActive(peeker.getUniqueId());
                 // 通知玩家发生错误
                 rangeChecker.stopRangeChecker(peeker);
                 plugin.getMessages().send(peeker, "command-error");
@@ -177,8 +193,10 @@ public class PeekStateHandler {
 
     /**
      * 结束 Peek 状态
+     *
+     * @param reason 结束原因，写入会话历史
      */
-    public void endPeek(Player peeker, boolean shouldRestore) {
+    public void endPeek(Player peeker, boolean shouldRestore, EndReason reason) {
         if (peeker == null) {
             plugin.getLogger().warning("尝试对空玩家结束贴贴功能");
             return;
@@ -194,7 +212,7 @@ public class PeekStateHandler {
                 return;
             }
             data.setExiting(true);
-            activePeeks.remove(peeker.getUniqueId());
+            removeActive(peeker.getUniqueId());
         }
 
         final Player target = plugin.getServer().getPlayer(data.getTargetUUID());
@@ -202,6 +220,7 @@ public class PeekStateHandler {
         // 记录统计
         long duration = (System.currentTimeMillis() - data.getStartTime()) / 1000;
         plugin.getStatisticsManager().recordPeekEnd(peeker, duration);
+        plugin.getHistoryManager().record(peeker.getUniqueId(), data, reason);
 
         // 设置冷却
         plugin.getCooldownManager().setCooldown(peeker);
@@ -230,8 +249,80 @@ public class PeekStateHandler {
         }
     }
 
+    public void endPeek(Player peeker, EndReason reason) {
+        endPeek(peeker, true, reason);
+    }
+
     public void endPeek(Player peeker) {
-        endPeek(peeker, true);
+        endPeek(peeker, EndReason.EXIT);
+    }
+
+    /**
+     * camera 模式下，目标换世界或重生后把其观察者重新附身到目标上
+     * 观察者已在旁观模式，只需传送到目标身边后重新附身，不再重复切换游戏模式。必须在目标的区域线程调用。
+     */
+    public void reattachCamera(Player target) {
+        if (!cameraMode) {
+            return;
+        }
+        List<UUID> peekers = getPeekers(target.getUniqueId());
+        if (peekers.isEmpty()) {
+            return;
+        }
+
+        // 在目标的线程上读取位置，供各观察者传送
+        Location location = target.getLocation();
+        for (UUID peekerUUID : peekers) {
+            Player peeker = plugin.getServer().getPlayer(peekerUUID);
+            PeekData data = activePeeks.get(peekerUUID);
+            if (peeker == null || data == null || peekerUUID.equals(target.getUniqueId())) {
+                continue;
+            }
+
+            peeker.getScheduler().run(plugin, task -> {
+                if (sessionEnded(peeker, data)) {
+                    return;
+                }
+                logDebug("Re-attaching camera of %s to %s", peeker.getName(), target.getName());
+                // 目标已在其他世界，解除附身不会被 isCameraLocked 拦截
+                if (peeker.getSpectatorTarget() != null) {
+                    peeker.setSpectatorTarget(null);
+                }
+                peeker.teleportAsync(location, TeleportCause.PLUGIN).thenAccept(success -> {
+                    if (!success) {
+                        plugin.getMessages().send(peeker, "teleport-failed");
+                        endPeek(peeker, EndReason.ERROR);
+                        return;
+                    }
+                    peeker.getScheduler().run(plugin, scheduledTask -> attachCamera(peeker, target, data),
+                            () -> logDebug("Peeker %s went offline before camera re-attach", peeker.getName()));
+                }).exceptionally(ex -> {
+                    plugin.getLogger().warning(String.format("传送玩家 %s 时发生异常: %s", peeker.getName(), ex.getMessage()));
+                    endPeek(peeker, EndReason.ERROR);
+                    return null;
+                });
+            }, null);
+        }
+    }
+
+    /**
+     * 是否应保持观察者对目标的附身：camera 模式的会话进行中，且目标仍存活、与观察者在同一世界
+     * 用于拦截观察者按潜行键等方式主动解除附身；目标死亡或换世界时放行，由 {@link #reattachCamera(Player)} 重新附身。
+     */
+    public boolean isCameraLocked(Player peeker, Entity spectatorTarget) {
+        // 插件关闭时（onDisable 中逐个恢复玩家）不再拦截
+        if (!cameraMode || spectatorTarget == null || !plugin.isEnabled()) {
+            return false;
+        }
+        PeekData data = activePeeks.get(peeker.getUniqueId());
+        return data != null && !data.isExiting()
+                && data.getTargetUUID().equals(spectatorTarget.getUniqueId())
+                && !spectatorTarget.isDead()
+                && spectatorTarget.getWorld().equals(peeker.getWorld());
+    }
+
+    public boolean isCameraMode() {
+        return cameraMode;
     }
 
     // ==================== 私有方法 ====================
@@ -246,61 +337,179 @@ public class PeekStateHandler {
 
         final Runnable onFailed = () -> {
             plugin.getMessages().send(peeker, "teleport-failed");
-            endPeek(peeker);
+            endPeek(peeker, EndReason.ERROR);
         };
+        final long startNanos = System.nanoTime();
+
+        // 切换旁观模式并传送，在区块预加载完成（或超时）后执行。
+        // area 为预加载的区域，传送到预加载时读取的目标位置，其区块票据在传送落地或放弃进入时释放；
+        // 未启用预加载时为 null，直接传送到目标当前位置
+        final Consumer<ChunkPrewarmer.Area> enter = area -> {
+            final Runnable releaseChunks = area != null ? area::release : () -> { };
+            final Runnable onEnterFailed = () -> {
+                releaseChunks.run();
+                onFailed.run();
+            };
 
-        // 第一步：切换游戏模式（延迟 1 tick）
-        final boolean firstRoundScheduled = peeker.getScheduler().execute(plugin, () -> {
-            // 会话已结束/正在退出：放弃进入旁观模式，避免卡旁观者
-            if (sessionEnded(peeker, data)) {
-                return;
-            }
-
-            // 清理骑乘状态，准备进入旁观者模式
-            PlayerStateUtil.prepareForSpectatorMode(peeker);
-
-            // 设置为旁观模式
-            peeker.setGameMode(GameMode.SPECTATOR);
-
-            // 第二步：等待 2 tick 后再传送
-            final boolean secondRoundScheduled = peeker.getScheduler().execute(plugin, () -> {
-                // 等待期间会话结束：兜底恢复，绝不留在旁观模式
+            // 第一步：切换游戏模式（延迟 1 tick）
+            final boolean firstRoundScheduled = peeker.getScheduler().execute(plugin, () -> {
+                // 会话已结束/正在退出：放弃进入旁观模式，避免卡旁观者
                 if (sessionEnded(peeker, data)) {
-                    recoverEndedSession(peeker, data);
+                    releaseChunks.run();
                     return;
                 }
 
-                peeker.teleportAsync(target.getLocation(), TeleportCause.PLUGIN).thenAccept(success -> {
-                    if (!success) {
-                        onFailed.run();
+                // 清理骑乘状态，准备进入旁观者模式
+                PlayerStateUtil.prepareForSpectatorMode(peeker);
+
+                // 设置为旁观模式
+                peeker.setGameMode(GameMode.SPECTATOR);
+
+                // 第二步：等待 2 tick 后再传送
+                final boolean secondRoundScheduled = peeker.getScheduler().execute(plugin, () -> {
+                    // 等待期间会话结束：兜底恢复，绝不留在旁观模式
+                    if (sessionEnded(peeker, data)) {
+                        releaseChunks.run();
+                        recoverEndedSession(peeker, data);
                         return;
                     }
-                    // teleportAsync 的回调线程不确定
-                    // 使用 peeker 的实体调度器确保在正确的区域线程执行
-                    peeker.getScheduler().run(plugin, scheduledTask -> {
-                        // 传送完成后会话已结束：回退恢复，避免以原游戏模式停留在目标位置
-                        if (sessionEnded(peeker, data)) {
-                            recoverEndedSession(peeker, data);
+
+                    Location destination = area != null ? area.getLocation() : target.getLocation();
+                    peeker.teleportAsync(destination, TeleportCause.PLUGIN).whenComplete((success, ex) -> {
+                        // 传送已落地（或失败），观察者自身的票据会接管区块
+                        releaseChunks.run();
+                    }).thenAccept(success -> {
+                        if (!success) {
+                            onFailed.run();
                             return;
                         }
-                        bossBarHandler.createDistanceBossBar(peeker, target);
-                        startNormalRangeChecker(peeker, target);
-                    }, () -> logDebug("Peeker %s went offline after teleport", peeker.getName()));
-                }).exceptionally(ex -> {
-                    plugin.getLogger().warning(String.format("传送玩家 %s 时发生异常: %s", peeker.getName(), ex.getMessage()));
-                    onFailed.run();
-                    return null;
-                });
-            }, onFailed, 2L); // 2 tick 延迟
+                        // teleportAsync 的回调线程不确定
+                        // 使用 peeker 的实体调度器确保在正确的区域线程执行
+                        peeker.getScheduler().run(plugin, scheduledTask -> {
+                            // 传送完成后会话已结束：回退恢复，避免以原游戏模式停留在目标位置
+                            if (sessionEnded(peeker, data)) {
+                                recoverEndedSession(peeker, data);
+                                return;
+                            }
+                            entryTiming.record(System.nanoTime() - startNanos);
+                            if (cameraMode) {
+                                attachCamera(peeker, target, data);
+                                return;
+                            }
+                            bossBarHandler.createDistanceBossBar(peeker, target);
+                            startNormalRangeChecker(peeker, target);
+                        }, () -> logDebug("Peeker %s went offline after teleport", peeker.getName()));
+                    }).exceptionally(ex -> {
+                        plugin.getLogger().warning(String.format("传送玩家 %s 时发生异常: %s", peeker.getName(), ex.getMessage()));
+                        onFailed.run();
+                        return null;
+                    });
+                }, onEnterFailed, 2L); // 2 tick 延迟
 
-            if (!secondRoundScheduled) {
-                onFailed.run();
+                if (!secondRoundScheduled) {
+                    onEnterFailed.run();
+                }
+            }, onEnterFailed, 1L);
+
+            if (!firstRoundScheduled) {
+                onEnterFailed.run();
+            }
+        };
+
+        if (!chunkPrewarmer.isEnabled()) {
+            enter.accept(null);
+            return;
+        }
+
+        // 第零步：在目标的线程上读取位置，先异步加载目标周围的区块并持有票据，观察者不必在原地等待冷区块加载
+        final boolean prewarmScheduled = target.getScheduler().run(plugin,
+                task -> chunkPrewarmer.prewarm(target.getLocation()).thenAccept(enter),
+                () -> endPeek(peeker, EndReason.TARGET_OFFLINE)) != null;
+        if (!prewarmScheduled) {
+            endPeek(peeker, EndReason.TARGET_OFFLINE);
+        }
+    }
+
+    /**
+     * 状态保存完成后的后续步骤，在写入线程回调。
+     * 保存失败时取消本次观察；成功时转到观察者的实体调度器执行 next，观察者已离线时按离线结束会话。
+     * next 抛出异常时 START 记录已经落盘，取消会话的同时追加 END 记录，避免会话残留在活跃表中。
+     */
+    private void afterStateSaved(Player peeker, PeekData data, Throwable saveError, Runnable next) {
+        if (saveError != null) {
+            abortPeekStart(peeker, data, saveError, false);
+            return;
+        }
+
+        final boolean scheduled = peeker.getScheduler().run(plugin, task -> {
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                abortPeekStart(peeker, data, e, true);
             }
-        }, onFailed, 1L);
+        }, () -> endPeek(peeker, false, EndReason.PEEKER_OFFLINE)) != null;
+        if (!scheduled) {
+            endPeek(peeker, false, EndReason.PEEKER_OFFLINE);
+        }
+    }
+
+    /**
+     * 状态保存成功后计入统计并通知双方；在观察者的实体调度器上调用，目标侧的消息与音效交给目标的实体调度器
+     */
+    private void announcePeekStart(Player peeker, Player target, PeekData data) {
+        // 保存期间会话已结束（退出、离线）：不再计入统计，也不通知目标
+        if (sessionEnded(peeker, data)) {
+            return;
+        }
+        plugin.getStatisticsManager().recordPeekStart(peeker, target);
+
+        // 检查是否静默 peek（有 bypass 权限）
+        boolean silentPeek = plugin.getTargetHandler().shouldSilentPeek(peeker);
+
+        // 发送消息给观察者
+        plugin.getMessages().send(peeker, "peek-start", "player", target.getName());
+
+        // 只有非静默模式才通知目标
+        if (!silentPeek) {
+            target.getScheduler().run(plugin, task -> {
+                plugin.getMessages().send(target, "being-peeked", "player", peeker.getName());
+                playSound(target, "start-peek");
+                updateActionBar(target);
+            }, null);
+        }
+    }
+
+    /**
+     * 取消尚未进入旁观模式的会话（状态保存失败，或保存后的启动步骤出错）。
+     * 此时玩家的游戏模式和位置都未改变，只需撤销会话记录，无需恢复。
+     *
+     * @param stateSaved START 记录是否已落盘；已落盘时追加 END 记录，否则只撤销状态索引
+     */
+    private void abortPeekStart(Player peeker, PeekData data, Throwable cause, boolean stateSaved) {
+        plugin.getLogger().warning(String.format(stateSaved
+                ? "启动玩家 %s 的观察时发生错误，已取消本次观察: %s"
+                : "无法保存玩家 %s 的状态，已取消本次观察: %s",
+                peeker.getName(), cause.getMessage()));
+        if (!stateSaved) {
+            plugin.getStateManager().discardFailedSave(peeker.getUniqueId());
+        }
 
-        if (!firstRoundScheduled) {
-            onFailed.run();
+        synchronized (activePeeks) {
+            if (activePeeks.get(peeker.getUniqueId()) != data) {
+                return;
+            }
+            data.setExiting(true);
+            removeActive(peeker.getUniqueId());
         }
+        if (stateSaved) {
+            plugin.getStateManager().clearPlayerState(peeker);
+        }
+
+        // 可能在写入线程或 activePeeks 锁内被调用，清理与提示交给观察者的实体调度器
+        peeker.getScheduler().run(plugin, task -> {
+            stopRangeCheckerAndBossBar(peeker);
+            plugin.getMessages().send(peeker, "command-error");
+        }, () -> stopRangeCheckerAndBossBar(peeker));
     }
 
     /**
@@ -360,7 +569,7 @@ public class PeekStateHandler {
             if (peeker.isDead()) {
                 plugin.getSLF4JLogger().warn("玩家 {} 在设置自我观察模式时已死亡", peeker.getName());
                 plugin.getMessages().send(peeker, "cannot-peek-while-dead");
-                endPeek(peeker, false);
+                endPeek(peeker, false, EndReason.DEATH);
                 return;
             }
 
@@ -372,29 +581,88 @@ public class PeekStateHandler {
             logDebug("Successfully set self peek game mode for player: %s", peeker.getName());
         }, () -> {
             plugin.getSLF4JLogger().warn("玩家 {} 在设置自我观察模式时已离线", peeker.getName());
-            endPeek(peeker, false);
+            endPeek(peeker, false, EndReason.PEEKER_OFFLINE);
         }, 1L);
     }
 
+    /**
+     * 把观察者的视角附身到目标上；在观察者的实体调度器上调用
+     */
+    private void attachCamera(Player peeker, Player target, PeekData data) {
+        // 附身前会话已结束：回退恢复，避免以旁观模式停留在目标位置
+        if (sessionEnded(peeker, data)) {
+            recoverEndedSession(peeker, data);
+            return;
+        }
+        if (!target.isOnline()) {
+            endPeek(peeker, EndReason.TARGET_OFFLINE);
+            return;
+        }
+        peeker.setSpectatorTarget(target);
+        logDebug("Attached camera of %s to %s", peeker.getName(), target.getName());
+    }
+
     private void startNormalRangeChecker(Player peeker, Player target) {
+        String targetName = target.getName();
         rangeChecker.startRangeChecker(peeker, target,
                 // 超出范围时
                 () -> {
                     plugin.getMessages().send(peeker, "range-exceeded");
-                    endPeek(peeker);
+                    endPeek(peeker, EndReason.RANGE_EXCEEDED);
                 },
                 // 目标离线时
-                () -> endPeek(peeker),
-                // 距离更新时
-                (distance) -> {
-                    PeekData data = activePeeks.get(peeker.getUniqueId());
-                    bossBarHandler.updateDistanceBossBar(peeker, distance, data);
-                },
-                // 不同世界时 - 先停止旧的距离检查器，防止竞态重复触发
-                () -> {
-                    rangeChecker.stopRangeChecker(peeker);
-                    plugin.getMessages().send(peeker, "target-in-different-world");
-                    teleportAndSetGameMode(peeker, target);
+                () -> endPeek(peeker, EndReason.TARGET_OFFLINE),
+                // 距离更新时：目标名称在开始时取一次，更新时不再查找目标
+                (distance) -> bossBarHandler.updateDistanceBossBar(peeker, distance, targetName),
+                // 不同世界时：沿用当前会话，直接传送过去
+                () -> followAcrossWorlds(peeker, target));
+    }
+
+    /**
+     * 目标去了其他世界：暂停距离检查，把观察者直接传送到目标的位置后恢复检查
+     * 观察者已在旁观模式，会话、BossBar 与距离检查器都沿用，不再走切换游戏模式和延迟传送的完整流程。
+     * 在观察者的区域线程调用。
+     */
+    private void followAcrossWorlds(Player peeker, Player target) {
+        final PeekData data = activePeeks.get(peeker.getUniqueId());
+        // 已在跟随中：暂停前已提交的检查可能再次触发
+        if (data == null || !rangeChecker.holdRangeChecker(peeker)) {
+            return;
+        }
+
+        // 目标的位置从发布的副本读取，不跨区域访问目标
+        PositionSnapshot position = rangeChecker.getTargetPosition(target.getUniqueId());
+        World world = position != null ? plugin.getServer().getWorld(position.worldId()) : null;
+        if (world == null) {
+            // 副本不可用时退回完整流程
+            rangeChecker.stopRangeChecker(peeker);
+            plugin.getMessages().send(peeker, "target-in-different-world");
+            teleportAndSetGameMode(peeker, target);
+            return;
+        }
+
+        plugin.getMessages().send(peeker, "target-in-different-world");
+        logDebug("Following %s across worlds to %s", peeker.getName(), world.getName());
+        final long startNanos = System.nanoTime();
+        peeker.teleportAsync(new Location(world, position.x(), position.y(), position.z()), TeleportCause.PLUGIN)
+                .thenAccept(success -> {
+                    if (!success) {
+                        plugin.getMessages().send(peeker, "teleport-failed");
+                        endPeek(peeker, EndReason.ERROR);
+                        return;
+                    }
+                    peeker.getScheduler().run(plugin, scheduledTask -> {
+                        if (sessionEnded(peeker, data)) {
+                            recoverEndedSession(peeker, data);
+                            return;
+                        }
+                        hopTiming.record(System.nanoTime() - startNanos);
+                        rangeChecker.resumeRangeChecker(peeker);
+                    }, () -> logDebug("Peeker %s went offline after world hop", peeker.getName()));
+                }).exceptionally(ex -> {
+                    plugin.getLogger().warning(String.format("传送玩家 %s 时发生异常: %s", peeker.getName(), ex.getMessage()));
+                    endPeek(peeker, EndReason.ERROR);
+                    return null;
                 });
     }
 
@@ -406,17 +674,17 @@ public class PeekStateHandler {
                 // 超出自我观察范围时
                 () -> {
                     plugin.getMessages().send(peeker, "self-peek-range-exceeded");
-                    endPeek(peeker);
+                    endPeek(peeker, EndReason.RANGE_EXCEEDED);
                 },
                 // 世界改变时
                 () -> {
                     plugin.getMessages().send(peeker, "self-peek-world-changed");
-                    endPeek(peeker);
+                    endPeek(peeker, EndReason.WORLD_CHANGE);
                 },
                 // 距离更新时（用于更新 BossBar）
                 (distance) -> bossBarHandler.updateDistanceBossBar(peeker, distance, selfPeekLabel),
                 // 发生错误时
-                () -> endPeek(peeker));
+                () -> endPeek(peeker, EndReason.ERROR));
     }
 
     private void stopRangeCheckerAndBossBar(Player peeker) {
@@ -454,6 +722,34 @@ public class PeekStateHandler {
         plugin.logDebug(message, args);
     }
 
+    /**
+     * 登记会话并更新反向索引。调用方必须持有 activePeeks 锁。
+     */
+    private void putActive(UUID peeker, PeekData data) {
+        PeekData previous = activePeeks.put(peeker, data);
+        if (previous != null) {
+            unindex(peeker, previous);
+        }
+        peekersByTarget.computeIfAbsent(data.getTargetUUID(), k -> ConcurrentHashMap.newKeySet()).add(peeker);
+    }
+
+    /**
+     * 移除会话并更新反向索引。调用方必须持有 activePeeks 锁。
+     */
+    private void removeActive(UUID peeker) {
+        PeekData removed = activePeeks.remove(peeker);
+        if (removed != null) {
+            unindex(peeker, removed);
+        }
+    }
+
+    private void unindex(UUID peeker, PeekData data) {
+        peekersByTarget.computeIfPresent(data.getTargetUUID(), (k, peekers) -> {
+            peekers.remove(peeker);
+            return peekers.isEmpty() ? null : peekers;
+        });
+    }
+
     // ==================== 公共查询方法 ====================
 
     public Map<UUID, PeekData> getActivePeeks() {
@@ -461,13 +757,22 @@ public class PeekStateHandler {
     }
 
     public void removeActivePeek(Player player) {
-        activePeeks.remove(player.getUniqueId());
+        synchronized (activePeeks) {
+            removeActive(player.getUniqueId());
+        }
+    }
+
+    /**
+     * 正在观察指定玩家的观察者（包括自我观察），返回副本
+     */
+    public List<UUID> getPeekers(UUID targetUUID) {
+        Set<UUID> peekers = peekersByTarget.get(targetUUID);
+        return peekers == null ? List.of() : List.copyOf(peekers);
     }
 
     public long getPeekerCount(UUID targetUUID) {
-        return activePeeks.values().stream()
-                .filter(data -> data.getTargetUUID().equals(targetUUID))
-                .count();
+        Set<UUID> peekers = peekersByTarget.get(targetUUID);
+        return peekers == null ? 0 : peekers.size();
     }
 
     public void updateActionBar(Player target) {
@@ -499,4 +804,22 @@ public class PeekStateHandler {
     public PlayerStateRestorer getStateRestorer() {
         return stateRestorer;
     }
+
+    public ChunkPrewarmer getChunkPrewarmer() {
+        return chunkPrewarmer;
+    }
+
+    /**
+     * 从开始进入到传送到目标身边（首帧）的耗时，包括区块预加载
+     */
+    public TimingStats.Snapshot getEntryTiming() {
+        return entryTiming.snapshot();
+    }
+
+    /**
+     * 跨世界跟随的耗时（从发起传送到恢复距离检查）
+     */
+    public TimingStats.Snapshot getHopTiming() {
+        return hopTiming.snapshot();
+    }
 }
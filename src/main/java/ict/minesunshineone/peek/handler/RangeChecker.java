@@ -1,36 +1,112 @@
 package ict.minesunshineone.peek.handler;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 
 import ict.minesunshineone.peek.PeekPlugin;
 import ict.minesunshineone.peek.data.PeekData;
+import ict.minesunshineone.peek.data.PositionSnapshot;
+import ict.minesunshineone.peek.util.TimingStats;
 import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 
 /**
- * 负责管理 Peek 模式下的距离检查任务
+ * 负责管理 Peek 模式下的距离检查
  * 包括普通 Peek 和自我观察模式的距离监控
+ *
+ * <p>所有会话存放在一个紧凑数组中，由一个全局定时任务每 tick 挑出到期的会话，按观察者所在的区域区段分组，
+ * 每组只向所在区域提交一个任务，在区域线程上连续检查整组会话；需要结束的会话在遍历结束后统一处理。
+ * 观察者在两次检查之间移动到其他区域时，该会话改由其实体调度器单独检查一次。
+ *
+ * <p>下一次检查的时间由距离上限的余量决定：双方以最大相对速度互相远离，至少需要多少 tick 才可能超出范围，
+ * 就在多少 tick 后再检查（不超过 max-interval）。各间隔对应的距离阈值预先平方保存，判断时只比较平方距离；
+ * 离上限很远的会话很少被检查，接近上限的会话每 tick 检查一次。传送、末影珍珠等不受速度上限约束的位移
+ * 由 {@link #onPlayerTeleported(UUID)} 在传送事件中标记，下一 tick 立即检查。
+ * 标记只在目标位置于移动之后重新发布过时才清除，避免检查读到移动前的位置却消耗了标记；
+ * 传送事件先于实际位移触发，其标记再多保留一个 tick。
+ *
+ * <p>range-check.mode 为 event 时不再按余量轮询：观察者或目标移动时由 {@link #onPlayerMoved(UUID)}
+ * 标记相关会话，下一 tick 检查一次，同一 tick 内的多次移动合并为一次；另外每 max-interval tick 兜底检查一次，
+ * 覆盖骑乘等不触发移动事件的情况。
+ *
+ * <p>检查在观察者所在的区域线程上执行，目标的位置只从 {@link TargetPositionTracker} 发布的副本读取，
+ * 不跨区域访问目标实体；观察者的位置读入会话自带的 Location，检查过程中不分配对象。
+ * 每个区域批次内同一目标的会话排在一起，整组只读取一次目标的位置副本，再依次计算各观察者的距离；
+ * 一名主播被几十人同时观察时，目标侧的开销只与目标数有关。
  */
 public class RangeChecker {
 
+    // BossBar 距离显示的最短刷新间隔，只有刷新时才需要开方
+    private static final long DISPLAY_INTERVAL_TICKS = 10L;
+    // 会话自上次检查以来没有移动事件
+    private static final long NOT_MOVED = -1L;
+    // Folia 的区域由 16×16 个区块组成的区段拼成，同一区段内的实体一定属于同一区域
+    private static final int SECTION_SHIFT = 4 + 4;
+    // 批次内按观察组排序，自我观察的会话排在最前
+    private static final Comparator<Session> BY_GROUP = Comparator.comparingInt(
+            session -> session.group != null ? session.group.id : -1);
+
     private final PeekPlugin plugin;
-    private final Map<UUID, ScheduledTask> rangeCheckers = new HashMap<>();
     private final double maxPeekDistance;
+    private final double maxPeekDistanceSquared;
+    private final int maxInterval;
+    private final boolean eventDriven;
+    // intervalThresholds[k]：平方距离不超过该值时，k tick 内不可能超出范围；不可能满足时为 -1
+    private final double[] intervalThresholds;
+
+    // 活跃会话：紧凑数组 + 按观察者查找的索引，删除时用末尾元素填补空位
+    private Session[] sessions = new Session[16];
+    private int size;
+    private final Map<UUID, Session> byPeeker = new HashMap<>();
+    // 玩家 -> 与其有关（作为观察者或目标）的会话；写时复制，移动事件中无锁查找
+    private final Map<UUID, Session[]> involved = new ConcurrentHashMap<>();
+    private final TargetPositionTracker positions;
+
+    private final ScheduledTask ticker;
+    // 全局定时任务执行的次数，只由全局区域线程递增
+    private volatile long currentTick;
+    private final TimingStats timing = new TimingStats();
+    // 当前轮各区域批次耗时之和，在下一轮开始时计入 timing
+    private final AtomicLong cycleNanos = new AtomicLong();
+    private volatile int lastBatchCount;
 
     public RangeChecker(PeekPlugin plugin) {
         this.plugin = plugin;
         this.maxPeekDistance = plugin.getConfig().getDouble("limits.max-peek-distance", 50.0);
+        this.maxPeekDistanceSquared = maxPeekDistance * maxPeekDistance;
+        this.maxInterval = Math.max(1, plugin.getConfig().getInt("range-check.max-interval", 10));
+        String mode = plugin.getConfig().getString("range-check.mode", "polling");
+        this.eventDriven = "event".equalsIgnoreCase(mode);
+        if (!eventDriven && !"polling".equalsIgnoreCase(mode)) {
+            plugin.getLogger().warning(String.format("未知的距离检查模式 \"%s\"，使用 polling", mode));
+        }
+        double maxSpeed = Math.max(0.01, plugin.getConfig().getDouble("range-check.max-speed", 2.0));
+        this.intervalThresholds = new double[maxInterval + 1];
+        for (int k = 1; k <= maxInterval; k++) {
+            double remaining = maxPeekDistance - k * maxSpeed;
+            intervalThresholds[k] = remaining >= 0 ? remaining * remaining : -1;
+        }
+        this.positions = new TargetPositionTracker(plugin, () -> currentTick);
+        this.ticker = plugin.getServer().getGlobalRegionScheduler().runAtFixedRate(plugin,
+                task -> tick(), 1L, 1L);
     }
 
     /**
      * 启动普通 Peek 的距离检查器
-     * 
+     *
      * @param peeker           观察者
      * @param target           目标玩家
      * @param onRangeExceeded  超出距离时的回调
@@ -43,64 +119,20 @@ public class RangeChecker {
             Runnable onTargetOffline,
             Consumer<Double> onDistanceUpdate,
             Runnable onDifferentWorld) {
-        synchronized (this) {
-            // 先停止已有的检查器（如果有的话）
-            ScheduledTask existingTask = rangeCheckers.remove(peeker.getUniqueId());
-            if (existingTask != null) {
-                existingTask.cancel();
-            }
-
-            // 使用 peeker 的实体调度器，而非 target 的
-            // 这样当 target 换维度时，peeker 的调度器不会退役，不会产生竞态
-            ScheduledTask task = peeker.getScheduler().runAtFixedRate(plugin,
-                    scheduledTask -> {
-                        // 检查观察者是否死亡
-                        if (peeker.isDead()) {
-                            return;
-                        }
-
-                        // 检查目标是否离线
-                        if (!target.isOnline()) {
-                            onTargetOffline.run();
-                            return;
-                        }
-
-                        if (peeker.getWorld().equals(target.getWorld())) {
-                            double distance = peeker.getLocation().distance(target.getLocation());
-                            onDistanceUpdate.accept(distance);
-                            if (distance > maxPeekDistance) {
-                                onRangeExceeded.run();
-                            }
-                        } else {
-                            // 跨维度
-                            onDifferentWorld.run();
-                        }
-                    },
-                    () -> {
-                        // 实体调度器退役 -> 观察者已经离线
-                        logDebug("Peeker %s's entity scheduler retired, ending peek", peeker.getName());
-
-                        // 清理
-                        synchronized (RangeChecker.this) {
-                            rangeCheckers.remove(peeker.getUniqueId());
-                        }
-                    },
-                    1L, 10L);
-
-            // 实体调度器没有退役，正常添加到任务列表中
-            if (task != null) {
-                rangeCheckers.put(peeker.getUniqueId(), task);
-                return;
-            }
-
-            // 实体调度器退役 -> 观察者已经离线
+        if (!peeker.isOnline()) {
+            // 观察者已经离线
             onTargetOffline.run();
+            return;
         }
+
+        Session session = new Session(peeker, target, null, null,
+                onRangeExceeded, onTargetOffline, onDistanceUpdate, onDifferentWorld, null);
+        add(session);
     }
 
     /**
      * 启动自我观察模式的距离检查器
-     * 
+     *
      * @param peeker           观察者
      * @param originalLocation 原始位置
      * @param getPeekData      获取 PeekData 的函数
@@ -110,99 +142,562 @@ public class RangeChecker {
      * @param onError          发生错误时的回调
      */
     public void startSelfRangeChecker(Player peeker, Location originalLocation,
-            java.util.function.Supplier<PeekData> getPeekData,
+            Supplier<PeekData> getPeekData,
             Runnable onRangeExceeded,
             Runnable onWorldChanged,
-            java.util.function.Consumer<Double> onDistanceUpdate,
+            Consumer<Double> onDistanceUpdate,
             Runnable onError) {
-        synchronized (this) {
-            // 先停止已有的检查器（如果有的话）
-            stopRangeChecker(peeker);
-
-            ScheduledTask task = peeker.getScheduler().runAtFixedRate(plugin,
-                    scheduledTask -> {
-                        // 检查观察者是否死亡（与普通peek逻辑一致）
-                        if (peeker.isDead()) {
-                            logDebug("Player %s died during self peek, but continuing to monitor for respawn",
-                                    peeker.getName());
-                            return; // 不立即结束，等待重生处理
-                        }
-
-                        // 额外的状态检查
-                        PeekData data = getPeekData.get();
-                        if (data == null) {
-                            logDebug("PeekData for player %s is null, stopping range checker", peeker.getName());
-                            scheduledTask.cancel();
-                            return;
-                        }
-
-                        // 检查是否超出距离限制（相对于原始位置）
-                        if (peeker.getWorld().equals(originalLocation.getWorld())) {
-                            double distance = peeker.getLocation().distance(originalLocation);
-                            // 更新距离显示
-                            onDistanceUpdate.accept(distance);
-                            if (distance > maxPeekDistance) {
-                                logDebug("Player %s exceeded self peek distance: %.2f > %.2f",
-                                        peeker.getName(), distance, maxPeekDistance);
-                                onRangeExceeded.run();
-                            }
-                        } else {
-                            // 如果换了世界，自动结束自我观察
-                            logDebug("Player %s changed world during self peek", peeker.getName());
-                            onWorldChanged.run();
-                        }
-                    },
-                    () -> {
-                        logDebug("Player %s went offline during self peek, ending peek", peeker.getName());
-                        onError.run();
-                    },
-                    1L, 10L);
-
-            if (task == null) {
-                logDebug("Player %s went offline during self peek, ending peek", peeker.getName());
-                onError.run();
-                return;
-            }
-
-            rangeCheckers.put(peeker.getUniqueId(), task);
-            logDebug("Started self range checker for player: %s", peeker.getName());
+        if (!peeker.isOnline()) {
+            logDebug("Player %s went offline during self peek, ending peek", peeker.getName());
+            onError.run();
+            return;
         }
+
+        Session session = new Session(peeker, null, originalLocation, getPeekData,
+                onRangeExceeded, null, onDistanceUpdate, onWorldChanged, onError);
+        add(session);
+        logDebug("Started self range checker for player: %s", peeker.getName());
     }
 
     /**
      * 停止指定玩家的距离检查器
-     * 
+     *
      * @param peeker 观察者
      */
     public void stopRangeChecker(Player peeker) {
         synchronized (this) {
-            ScheduledTask task = rangeCheckers.remove(peeker.getUniqueId());
+            Session session = byPeeker.get(peeker.getUniqueId());
+            if (session != null) {
+                remove(session);
+            }
+        }
+    }
 
-            if (task != null) {
-                task.cancel();
+    /**
+     * 暂停指定观察者的距离检查（例如正在跨世界传送），会话保持不变
+     *
+     * @return 是否由本次调用暂停；会话不存在或已暂停时返回 false
+     */
+    public boolean holdRangeChecker(Player peeker) {
+        synchronized (this) {
+            Session session = byPeeker.get(peeker.getUniqueId());
+            if (session == null || session.held) {
+                return false;
             }
+            session.held = true;
+            return true;
         }
     }
 
+    /**
+     * 恢复被暂停的距离检查，下一 tick 立即检查并刷新距离显示
+     */
+    public void resumeRangeChecker(Player peeker) {
+        synchronized (this) {
+            Session session = byPeeker.get(peeker.getUniqueId());
+            if (session == null) {
+                return;
+            }
+            session.nextCheckTick = currentTick + 1;
+            session.lastDisplayTick = -DISPLAY_INTERVAL_TICKS;
+            session.held = false;
+        }
+    }
+
+    /**
+     * 目标最近一次发布的位置；可在任意线程调用
+     *
+     * @return 位置副本，目标不在观察中或尚未发布时返回 null
+     */
+    public PositionSnapshot getTargetPosition(UUID target) {
+        return positions.get(target);
+    }
+
     /**
      * 清理所有检查器
      */
     public void cleanup() {
+        ticker.cancel();
         synchronized (this) {
-            final Iterator<Map.Entry<UUID, ScheduledTask>> checkerEntryIterator = rangeCheckers.entrySet().iterator();
+            for (int i = 0; i < size; i++) {
+                sessions[i].active = false;
+                sessions[i] = null;
+            }
+            size = 0;
+            byPeeker.clear();
+            involved.clear();
+        }
+        positions.cleanup();
+    }
 
-            while (checkerEntryIterator.hasNext()) {
-                final Map.Entry<UUID, ScheduledTask> entry = checkerEntryIterator.next();
+    /**
+     * 是否由移动事件驱动（range-check.mode: event）
+     */
+    public boolean isEventDriven() {
+        return eventDriven;
+    }
 
-                final ScheduledTask task = entry.getValue();
-                task.cancel();
+    /**
+     * 玩家位置发生了变化：相关会话在下一 tick 检查；可在任意线程调用
+     */
+    public void onPlayerMoved(UUID uuid) {
+        markMoved(uuid, currentTick);
+    }
+
+    /**
+     * 玩家即将传送或已更换世界：与 {@link #onPlayerMoved(UUID)} 相同，但标记多保留一个 tick。
+     * 传送事件先于实际位移触发，下一 tick 发布的目标位置可能仍是传送前的位置。
+     */
+    public void onPlayerTeleported(UUID uuid) {
+        markMoved(uuid, currentTick + 1);
+    }
 
-                checkerEntryIterator.remove();
+    private void markMoved(UUID uuid, long tick) {
+        Session[] related = involved.get(uuid);
+        if (related == null) {
+            return;
+        }
+        for (Session session : related) {
+            // 已标记到同一或更晚 tick 的会话不再写入，同一 tick 内的多次移动只触发一次检查
+            long marked = session.movedTick.get();
+            while (marked < tick && !session.movedTick.compareAndSet(marked, tick)) {
+                marked = session.movedTick.get();
             }
         }
     }
 
+    /**
+     * 当前检查中的会话数
+     */
+    public synchronized int getSessionCount() {
+        return size;
+    }
+
+    /**
+     * 当前发布位置副本的目标数
+     */
+    public int getTrackedTargetCount() {
+        return positions.getTrackedCount();
+    }
+
+    /**
+     * 最近一次有会话到期时提交的区域批次数
+     */
+    public int getLastBatchCount() {
+        return lastBatchCount;
+    }
+
+    /**
+     * 每轮（有会话到期的 tick）检查的总耗时（各区域批次之和）
+     */
+    public TimingStats.Snapshot getTiming() {
+        return timing.snapshot();
+    }
+
+    // ==================== 私有方法 ====================
+
+    private synchronized void add(Session session) {
+        // 先停止已有的检查器（如果有的话）
+        Session existing = byPeeker.get(session.peeker.getUniqueId());
+        if (existing != null) {
+            remove(existing);
+        }
+
+        if (size == sessions.length) {
+            sessions = Arrays.copyOf(sessions, size * 2);
+        }
+        session.position = size;
+        session.nextCheckTick = currentTick + 1;
+        session.lastDisplayTick = -DISPLAY_INTERVAL_TICKS;
+        sessions[size++] = session;
+        byPeeker.put(session.peeker.getUniqueId(), session);
+        link(session.peeker.getUniqueId(), session);
+        if (session.target != null && !session.target.getUniqueId().equals(session.peeker.getUniqueId())) {
+            link(session.target.getUniqueId(), session);
+            session.group = positions.track(session.target);
+        }
+    }
+
+    /**
+     * 调用方必须持有 this 锁
+     */
+    private void remove(Session session) {
+        if (!session.active) {
+            return;
+        }
+        session.active = false;
+        int position = session.position;
+        Session last = sessions[--size];
+        sessions[position] = last;
+        last.position = position;
+        sessions[size] = null;
+        byPeeker.remove(session.peeker.getUniqueId(), session);
+        unlink(session.peeker.getUniqueId(), session);
+        if (session.target != null && !session.target.getUniqueId().equals(session.peeker.getUniqueId())) {
+            unlink(session.target.getUniqueId(), session);
+            positions.untrack(session.target.getUniqueId());
+        }
+    }
+
+    private void link(UUID uuid, Session session) {
+        involved.compute(uuid, (k, existing) -> {
+            if (existing == null) {
+                return new Session[]{session};
+            }
+            Session[] grown = Arrays.copyOf(existing, existing.length + 1);
+            grown[existing.length] = session;
+            return grown;
+        });
+    }
+
+    private void unlink(UUID uuid, Session session) {
+        involved.computeIfPresent(uuid, (k, existing) -> {
+            int index = -1;
+            for (int i = 0; i < existing.length; i++) {
+                if (existing[i] == session) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return existing;
+            }
+            if (existing.length == 1) {
+                return null;
+            }
+            Session[] shrunk = new Session[existing.length - 1];
+            System.arraycopy(existing, 0, shrunk, 0, index);
+            System.arraycopy(existing, index + 1, shrunk, index, existing.length - index - 1);
+            return shrunk;
+        });
+    }
+
+    /**
+     * 全局区域线程：挑出到期的会话，按区段分组并向各区域提交检查批次
+     */
+    private void tick() {
+        long now = ++currentTick;
+        long previousCycle = cycleNanos.getAndSet(0);
+        if (previousCycle > 0) {
+            timing.record(previousCycle);
+        }
+
+        List<Session> due = null;
+        synchronized (this) {
+            if (size == 0) {
+                lastBatchCount = 0;
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                Session session = sessions[i];
+                // 上一次的检查尚未执行（区域繁忙）时不重复提交
+                if (!session.held && (session.movedTick.get() != NOT_MOVED || session.nextCheckTick <= now)
+                        && session.queued.compareAndSet(false, true)) {
+                    if (due == null) {
+                        due = new ArrayList<>();
+                    }
+                    due.add(session);
+                }
+            }
+        }
+        if (due == null) {
+            return;
+        }
+
+        Map<SectionKey, List<Session>> batches = new HashMap<>();
+        for (Session session : due) {
+            SectionKey key = new SectionKey(session.lastWorld,
+                    session.lastBlockX >> SECTION_SHIFT, session.lastBlockZ >> SECTION_SHIFT);
+            batches.computeIfAbsent(key, k -> new ArrayList<>()).add(session);
+        }
+
+        for (Map.Entry<SectionKey, List<Session>> entry : batches.entrySet()) {
+            entry.getValue().sort(BY_GROUP);
+            Session first = entry.getValue().get(0);
+            plugin.getServer().getRegionScheduler().execute(plugin, entry.getKey().world(),
+                    first.lastBlockX >> 4, first.lastBlockZ >> 4, () -> runBatch(entry.getValue()));
+        }
+        lastBatchCount = batches.size();
+    }
+
+    /**
+     * 区域线程：连续检查一组会话，最后统一执行结束回调
+     */
+    private void runBatch(List<Session> batch) {
+        long startNanos = System.nanoTime();
+        List<Runnable> exits = null;
+        // 同一观察组的会话相邻，组变化时才读取一次目标位置
+        TargetPositionTracker.Group group = null;
+        PositionSnapshot targetPosition = null;
+        long publishedTick = Long.MAX_VALUE;
+
+        for (Session session : batch) {
+            session.queued.set(false);
+            if (!session.active) {
+                continue;
+            }
+            if (!plugin.getServer().isOwnedByCurrentRegion(session.peeker)) {
+                checkOnEntityScheduler(session);
+                continue;
+            }
+            if (session.group != group) {
+                group = session.group;
+                // 先读发布 tick 再读位置：发布方先写位置再写 tick，读到的位置不会早于该 tick
+                publishedTick = group != null ? group.publishedTick() : Long.MAX_VALUE;
+                targetPosition = group != null ? group.snapshot() : null;
+            }
+            Runnable exit = check(session, targetPosition, publishedTick);
+            if (exit != null) {
+                if (exits == null) {
+                    exits = new ArrayList<>();
+                }
+                exits.add(exit);
+            }
+        }
+
+        cycleNanos.addAndGet(System.nanoTime() - startNanos);
+
+        // 结束流程会停止检查器并修改会话数组，放在遍历结束后执行
+        if (exits != null) {
+            for (Runnable exit : exits) {
+                exit.run();
+            }
+        }
+    }
+
+    /**
+     * 观察者已不在分组所在的区域：在其实体调度器上单独检查一次，并更新位置供下一轮分组
+     */
+    private void checkOnEntityScheduler(Session session) {
+        if (!session.queued.compareAndSet(false, true)) {
+            return;
+        }
+        boolean scheduled = session.peeker.getScheduler().execute(plugin, () -> {
+            session.queued.set(false);
+            if (!session.active) {
+                return;
+            }
+            TargetPositionTracker.Group group = session.group;
+            long publishedTick = group != null ? group.publishedTick() : Long.MAX_VALUE;
+            Runnable exit = check(session, group != null ? group.snapshot() : null, publishedTick);
+            if (exit != null) {
+                exit.run();
+            }
+        }, () -> {
+            session.queued.set(false);
+            retire(session);
+        }, 1L);
+        if (!scheduled) {
+            session.queued.set(false);
+            retire(session);
+        }
+    }
+
+    /**
+     * 检查单个会话
+     *
+     * @param targetPosition 目标位置的副本，自我观察或尚未发布时为 null
+     * @param publishedTick  该副本发布时的 tick，自我观察时为 Long.MAX_VALUE
+     * @return 需要执行的结束回调，不需要时返回 null
+     */
+    private Runnable check(Session session, PositionSnapshot targetPosition, long publishedTick) {
+        Player peeker = session.peeker;
+        // 暂停前已提交的检查不再执行，避免重复触发跨世界跟随
+        if (session.held) {
+            return null;
+        }
+        // 目标位置在移动之后发布过才清除标记，否则保留到下一 tick 重新检查；
+        // 先清除再读取观察者位置，读取之后的移动会重新标记
+        long movedTick = session.movedTick.get();
+        if (movedTick != NOT_MOVED && publishedTick > movedTick) {
+            session.movedTick.compareAndSet(movedTick, NOT_MOVED);
+        }
+        if (!peeker.isOnline()) {
+            return () -> retire(session);
+        }
+
+        // 检查观察者是否死亡：不立即结束，等待重生处理
+        if (peeker.isDead()) {
+            session.nextCheckTick = currentTick + maxInterval;
+            return null;
+        }
+
+        Location location = peeker.getLocation(session.scratch);
+        session.lastWorld = location.getWorld();
+        session.lastBlockX = location.getBlockX();
+        session.lastBlockZ = location.getBlockZ();
+
+        if (session.target == null) {
+            return checkSelf(session, location);
+        }
+
+        // 检查目标是否离线
+        Player target = session.target;
+        if (!target.isOnline()) {
+            return guarded(session, session.onTargetOffline);
+        }
+
+        if (targetPosition == null) {
+            // 目标的位置尚未发布（刚开始观察），下一 tick 再检查
+            session.nextCheckTick = currentTick + 1;
+            return null;
+        }
+        if (location.getWorld().getUID().equals(targetPosition.worldId())) {
+            double distanceSquared = targetPosition.distanceSquared(location.getX(), location.getY(), location.getZ());
+            if (distanceSquared > maxPeekDistanceSquared) {
+                return guarded(session, session.onRangeExceeded);
+            }
+            scheduleNext(session, distanceSquared);
+            return null;
+        }
+        // 跨维度
+        return guarded(session, session.onWorldChanged);
+    }
+
+    private Runnable checkSelf(Session session, Location location) {
+        // 额外的状态检查
+        if (session.peekData.get() == null) {
+            logDebug("PeekData for player %s is null, stopping range checker", session.peeker.getName());
+            synchronized (this) {
+                remove(session);
+            }
+            return null;
+        }
+
+        // 检查是否超出距离限制（相对于原始位置）
+        if (location.getWorld().equals(session.origin.getWorld())) {
+            double distanceSquared = location.distanceSquared(session.origin);
+            if (distanceSquared > maxPeekDistanceSquared) {
+                logDebug("Player %s exceeded self peek distance: %.2f > %.2f",
+                        session.peeker.getName(), Math.sqrt(distanceSquared), maxPeekDistance);
+                return guarded(session, session.onRangeExceeded);
+            }
+            scheduleNext(session, distanceSquared);
+            return null;
+        }
+        // 如果换了世界，自动结束自我观察
+        logDebug("Player %s changed world during self peek", session.peeker.getName());
+        return guarded(session, session.onWorldChanged);
+    }
+
+    /**
+     * 按余量安排下一次检查，并按需刷新距离显示
+     */
+    private void scheduleNext(Session session, double distanceSquared) {
+        long now = currentTick;
+        session.nextCheckTick = now + (eventDriven ? maxInterval : intervalFor(distanceSquared));
+        if (now - session.lastDisplayTick >= DISPLAY_INTERVAL_TICKS) {
+            session.lastDisplayTick = now;
+            session.onDistanceUpdate.accept(Math.sqrt(distanceSquared));
+        }
+    }
+
+    /**
+     * 满足 distanceSquared &lt;= intervalThresholds[k] 的最大 k（阈值随 k 递减），至少为 1
+     */
+    private int intervalFor(double distanceSquared) {
+        int low = 1;
+        int high = maxInterval;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (distanceSquared <= intervalThresholds[mid]) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 同一批次中较早的回调可能已经结束了该会话，执行前再次确认
+     */
+    private static Runnable guarded(Session session, Runnable callback) {
+        return () -> {
+            if (session.active) {
+                callback.run();
+            }
+        };
+    }
+
+    /**
+     * 观察者已离线：移除会话，自我观察模式下通知结束
+     */
+    private void retire(Session session) {
+        synchronized (this) {
+            if (!session.active) {
+                return;
+            }
+            remove(session);
+        }
+        if (session.onError != null) {
+            logDebug("Player %s went offline during self peek, ending peek", session.peeker.getName());
+            session.onError.run();
+        } else {
+            logDebug("Peeker %s went offline, stopping range checker", session.peeker.getName());
+        }
+    }
+
     private void logDebug(String message, Object... args) {
         plugin.logDebug(message, args);
     }
+
+    /**
+     * 一个观察会话的检查状态；target 为 null 时为自我观察
+     */
+    private static final class Session {
+
+        final Player peeker;
+        final Player target;
+        final Location origin;
+        final Supplier<PeekData> peekData;
+        final Runnable onRangeExceeded;
+        final Runnable onTargetOffline;
+        final Consumer<Double> onDistanceUpdate;
+        final Runnable onWorldChanged;
+        final Runnable onError;
+
+        // 在数组中的下标，由 RangeChecker 锁保护
+        int position;
+        volatile boolean active = true;
+        // 已提交检查但尚未执行
+        final AtomicBoolean queued = new AtomicBoolean();
+        // 最近一次移动或传送事件的 tick，自上次检查以来没有移动时为 NOT_MOVED
+        final AtomicLong movedTick = new AtomicLong(NOT_MOVED);
+        // 暂停中（跨世界跟随传送期间），不参与检查
+        volatile boolean held;
+        // 下一次检查与上一次刷新距离显示的 tick（RangeChecker 的计数）
+        volatile long nextCheckTick;
+        volatile long lastDisplayTick;
+        // 目标所在的观察组，自我观察时为 null；由 RangeChecker 锁保护写入
+        TargetPositionTracker.Group group;
+        // 检查时读取观察者位置用，同一会话的检查不会并发执行
+        final Location scratch = new Location(null, 0, 0, 0);
+        // 上一次检查时观察者的位置，用于按区域分组
+        volatile World lastWorld;
+        volatile int lastBlockX;
+        volatile int lastBlockZ;
+
+        Session(Player peeker, Player target, Location origin, Supplier<PeekData> peekData,
+                Runnable onRangeExceeded, Runnable onTargetOffline, Consumer<Double> onDistanceUpdate,
+                Runnable onWorldChanged, Runnable onError) {
+            this.peeker = peeker;
+            this.target = target;
+            this.origin = origin;
+            this.peekData = peekData;
+            this.onRangeExceeded = onRangeExceeded;
+            this.onTargetOffline = onTargetOffline;
+            this.onDistanceUpdate = onDistanceUpdate;
+            this.onWorldChanged = onWorldChanged;
+            this.onError = onError;
+
+            Location location = peeker.getLocation();
+            this.lastWorld = location.getWorld();
+            this.lastBlockX = location.getBlockX();
+            this.lastBlockZ = location.getBlockZ();
+        }
+    }
+
+    private record SectionKey(World world, int x, int z) {
+    }
 }
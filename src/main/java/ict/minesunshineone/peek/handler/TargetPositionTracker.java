@@ -0,0 +1,160 @@
+package ict.minesunshineone.peek.handler;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import ict.minesunshineone.peek.PeekPlugin;
+import ict.minesunshineone.peek.data.PositionSnapshot;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+
+/**
+ * 被观察目标的位置发布器
+ * 每个被观察的目标在自己的实体调度器上每 tick 读取一次位置，写入一个不可变的 {@link PositionSnapshot}；
+ * 其他区域线程只读取这个副本，不再跨区域访问目标实体。位置没有变化时沿用上一个副本，不产生新对象。
+ *
+ * <p>同一目标的全部观察会话组成一个观察组（{@link Group}），位置只发布一份，按引用计数在最后一名观察者离开时停止。
+ * 会话直接持有所属的观察组，检查时不需要再按 UUID 查找。
+ *
+ * <p>每次发布（无论位置是否变化）都记录发布时 RangeChecker 的 tick，检查方据此判断副本是否晚于某次移动事件。
+ */
+public class TargetPositionTracker {
+
+    private final PeekPlugin plugin;
+    // RangeChecker 的 tick 计数
+    private final LongSupplier clock;
+    // 目标 -> 观察组；增删由 this 锁保护，统计数量时不加锁
+    private final Map<UUID, Group> tracked = new ConcurrentHashMap<>();
+    // 观察组编号，用于把同一目标的会话排在一起
+    private int nextGroupId;
+
+    public TargetPositionTracker(PeekPlugin plugin, LongSupplier clock) {
+        this.plugin = plugin;
+        this.clock = clock;
+    }
+
+    /**
+     * 开始（或继续）发布目标的位置
+     *
+     * @return 目标所在的观察组
+     */
+    public synchronized Group track(Player target) {
+        Group existing = tracked.get(target.getUniqueId());
+        if (existing != null) {
+            existing.references++;
+            return existing;
+        }
+
+        Group entry = new Group(nextGroupId++, target);
+        tracked.put(target.getUniqueId(), entry);
+        // 目标已失效时返回 null：快照保持为空，由调用方按目标离线处理
+        entry.task = target.getScheduler().runAtFixedRate(plugin, task -> publish(entry), null, 1L, 1L);
+        return entry;
+    }
+
+    /**
+     * 一名观察者不再需要该目标的位置；引用归零时停止发布
+     */
+    public synchronized void untrack(UUID target) {
+        Group entry = tracked.get(target);
+        if (entry == null || --entry.references > 0) {
+            return;
+        }
+        tracked.remove(target);
+        if (entry.task != null) {
+            entry.task.cancel();
+        }
+    }
+
+    /**
+     * 获取目标最近一次发布的位置；可在任意线程调用
+     *
+     * @return 位置副本，目标未被跟踪或尚未发布时返回 null
+     */
+    public PositionSnapshot get(UUID target) {
+        Group entry = tracked.get(target);
+        return entry != null ? entry.snapshot : null;
+    }
+
+    /**
+     * 当前发布位置的目标数
+     */
+    public int getTrackedCount() {
+        return tracked.size();
+    }
+
+    /**
+     * 停止全部发布任务
+     */
+    public synchronized void cleanup() {
+        for (Group entry : tracked.values()) {
+            if (entry.task != null) {
+                entry.task.cancel();
+            }
+        }
+        tracked.clear();
+    }
+
+    // ==================== 私有方法 ====================
+
+    /**
+     * 目标的实体调度器线程：读取位置并在变化时发布新副本，随后记录发布 tick
+     */
+    private void publish(Group entry) {
+        long tick = clock.getAsLong();
+        Location location = entry.player.getLocation(entry.scratch);
+        World world = location.getWorld();
+        if (world == null) {
+            return;
+        }
+        PositionSnapshot current = entry.snapshot;
+        if (current == null || current.x() != location.getX() || current.y() != location.getY()
+                || current.z() != location.getZ() || !current.worldId().equals(world.getUID())) {
+            entry.snapshot = new PositionSnapshot(world.getUID(), location.getX(), location.getY(), location.getZ());
+        }
+        // 先写位置再写 tick：读到该 tick 的线程一定能看到不早于它的位置
+        entry.publishedTick = tick;
+    }
+
+    /**
+     * 同一目标的观察组
+     */
+    static final class Group {
+
+        final int id;
+        final Player player;
+        // 只在目标的实体调度器上使用，复用以避免每 tick 分配 Location
+        final Location scratch;
+        // 引用该目标的会话数，由 TargetPositionTracker 锁保护
+        int references = 1;
+        ScheduledTask task;
+        volatile PositionSnapshot snapshot;
+        // 最近一次发布时的 tick，尚未发布时为 -1
+        volatile long publishedTick = -1L;
+
+        Group(int id, Player player) {
+            this.id = id;
+            this.player = player;
+            this.scratch = new Location(null, 0, 0, 0);
+        }
+
+        /**
+         * 最近一次发布的位置，尚未发布时返回 null
+         */
+        PositionSnapshot snapshot() {
+            return snapshot;
+        }
+
+        /**
+         * 最近一次发布时 RangeChecker 的 tick，尚未发布时返回 -1
+         */
+        long publishedTick() {
+            return publishedTick;
+        }
+    }
+}
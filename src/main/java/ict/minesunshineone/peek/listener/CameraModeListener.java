@@ -0,0 +1,61 @@
+package ict.minesunshineone.peek.listener;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+
+import com.destroystokyo.paper.event.player.PlayerPostRespawnEvent;
+import com.destroystokyo.paper.event.player.PlayerStopSpectatingEntityEvent;
+
+import ict.minesunshineone.peek.handler.PeekStateHandler;
+
+/**
+ * view.mode 为 camera 时注册：维持观察者对目标的附身
+ * 观察者不能主动解除附身；目标换世界（含穿越传送门）或重生后，观察者被重新附身到目标上。
+ * 重生到其他世界时换世界事件与重生完成事件都会触发，只由换世界事件重新附身一次。
+ */
+public class CameraModeListener implements Listener {
+
+    private final PeekStateHandler stateHandler;
+    // 正在重生到其他世界的玩家：其重新附身已由换世界事件处理
+    private final Set<UUID> respawningAcrossWorlds = ConcurrentHashMap.newKeySet();
+
+    public CameraModeListener(PeekStateHandler stateHandler) {
+        this.stateHandler = stateHandler;
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onStopSpectating(PlayerStopSpectatingEntityEvent event) {
+        if (stateHandler.isCameraLocked(event.getPlayer(), event.getSpectatorTarget())) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        stateHandler.reattachCamera(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        World respawnWorld = event.getRespawnLocation().getWorld();
+        if (respawnWorld != null && !respawnWorld.equals(event.getPlayer().getWorld())) {
+            respawningAcrossWorlds.add(event.getPlayer().getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPostRespawn(PlayerPostRespawnEvent event) {
+        if (respawningAcrossWorlds.remove(event.getPlayer().getUniqueId())) {
+            return;
+        }
+        stateHandler.reattachCamera(event.getPlayer());
+    }
+}
@@ -1,18 +1,19 @@
 package ict.minesunshineone.peek.listener;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
 import ict.minesunshineone.peek.PeekPlugin;
+import ict.minesunshineone.peek.data.EndReason;
 import ict.minesunshineone.peek.data.PeekData;
 
 public class PeekListener implements Listener {
@@ -28,7 +29,12 @@ public class PeekListener implements Listener {
         Player player = event.getPlayer();
 
         // 如果是观察者下线，只记录状态，不执行恢复操作
-        if (plugin.getStateHandler().getActivePeeks().containsKey(player.getUniqueId())) {
+        PeekData quitData = plugin.getStateHandler().getActivePeeks().get(player.getUniqueId());
+        if (quitData != null) {
+            // 统计时长与会话历史同时记录，两者对离线结束的会话保持一致
+            long duration = (System.currentTimeMillis() - quitData.getStartTime()) / 1000;
+            plugin.getStatisticsManager().recordPeekEnd(player, duration);
+            plugin.getHistoryManager().record(player.getUniqueId(), quitData, EndReason.PEEKER_OFFLINE);
 
             // 移除活跃观察记录，但保留状态文件
             plugin.getStateHandler().removeActivePeek(player);
@@ -40,45 +46,89 @@ public class PeekListener implements Listener {
 
         // 如果是被观察者下线，结束所有观察他的玩家的观察状态
         // 但要排除自我观察的情况（观察者和被观察者是同一人）
-        for (Map.Entry<UUID, PeekData> entry : new HashMap<>(plugin.getStateHandler().getActivePeeks()).entrySet()) {
-            UUID peekerUUID = entry.getKey();
-            UUID targetUUID = entry.getValue().getTargetUUID();
-
-            // 如果被观察者下线了，且不是自我观察
-            if (player.getUniqueId().equals(targetUUID) && !peekerUUID.equals(targetUUID)) {
-                Player peeker = plugin.getServer().getPlayer(peekerUUID);
-                if (peeker != null) {
-                    plugin.getStateHandler().endPeek(peeker);
-                }
+        for (UUID peekerUUID : plugin.getStateHandler().getPeekers(player.getUniqueId())) {
+            if (peekerUUID.equals(player.getUniqueId())) {
+                continue;
+            }
+            Player peeker = plugin.getServer().getPlayer(peekerUUID);
+            if (peeker != null) {
+                plugin.getStateHandler().endPeek(peeker, EndReason.TARGET_OFFLINE);
             }
         }
 
         // 取消所有相关的请求
         plugin.getPrivacyManager().cancelAllRequests(player);
+
+        // 统计数据转入离线缓存
+        plugin.getStatisticsManager().handleQuit(player);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        // 在异步预登录线程上提前解码未恢复的状态，加入时无需再读盘
+        plugin.getStateManager().preloadPlayerState(event.getUniqueId(), event.getName());
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
 
-        // 检查是否有未恢复的状态
-        PeekData savedState = plugin.getStateManager().getPlayerState(player);
-        if (savedState != null) {
-            // 使用玩家实体调度器，避免 RegionScheduler 坐标过时问题
+        // 后台加载统计数据
+        plugin.getStatisticsManager().handleJoin(player);
+
+        CompletableFuture<PeekData> savedState = plugin.getStateManager().takePreloadedState(player.getUniqueId());
+        if (savedState == null) {
+            // 绝大多数玩家没有未恢复的状态，直接查询内存索引，不访问磁盘
+            if (!plugin.getStateManager().hasPendingState(player.getUniqueId())) {
+                return;
+            }
+            // 预加载未命中（例如插件在玩家预登录后才启用）：异步读取
+            savedState = plugin.getStateManager().loadPlayerState(player);
+        }
+
+        savedState.thenAccept(state -> {
+            if (state != null) {
+                scheduleRestore(player, state);
+            }
+        });
+    }
+
+    /**
+     * 调度恢复玩家状态：存活的玩家在下一个 tick 立即恢复，
+     * 仅当玩家以死亡状态加入时才等待其重生。
+     */
+    private void scheduleRestore(Player player, PeekData savedState) {
+        Runnable retired = () -> plugin.getLogger().info(
+                String.format("玩家 %s 在恢复 Peek 状态前离线", player.getName()));
+
+        // 使用玩家实体调度器，避免 RegionScheduler 坐标过时问题
+        player.getScheduler().run(plugin, task -> {
+            if (!player.isDead()) {
+                restoreOnJoin(player, savedState);
+                return;
+            }
+
             player.getScheduler().runAtFixedRate(plugin,
-                    task -> {
+                    watchTask -> {
                         if (!player.isDead()) {
-                            task.cancel();
-                            // 直接恢复状态（clearPlayerState 在 applyRestoredState 中执行）
-                            plugin.getStateHandler().getStateRestorer().restorePlayerState(player, savedState);
-                            // 发送断线重连提示
-                            plugin.getMessages().send(player, "peek-end-offline");
+                            watchTask.cancel();
+                            restoreOnJoin(player, savedState);
                         }
                     },
-                    () -> plugin.getLogger().info(
-                            String.format("玩家 %s 在恢复 Peek 状态前离线", player.getName())),
-                    1L, 20L); // 每秒检查一次
-        }
+                    retired,
+                    20L, 20L); // 每秒检查一次是否已重生
+        }, retired);
+    }
+
+    private void restoreOnJoin(Player player, PeekData savedState) {
+        // 直接恢复状态（clearPlayerState 在 applyRestoredState 中执行）
+        plugin.getStateHandler().getStateRestorer().restorePlayerState(player, savedState);
+        // 发送断线重连提示
+        plugin.getMessages().send(player, "peek-end-offline");
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
@@ -89,7 +139,7 @@ public class PeekListener implements Listener {
         // endPeek 检测到玩家已死亡会启动重生监视器，待重生后恢复状态，
         // 避免玩家重生后卡在旁观模式。
         if (plugin.getStateHandler().getActivePeeks().containsKey(player.getUniqueId())) {
-            plugin.getStateHandler().endPeek(player);
+            plugin.getStateHandler().endPeek(player, EndReason.DEATH);
         }
 
         // 如果玩家死亡时有发出的请求，线程安全地取消这些请求并通知双方
@@ -30,6 +30,7 @@ public class PeekPacketListener {
                 Player player = event.getPlayer();
 
                 // 检查玩家是否在peek状态
+                // 两种观察方式都拦截：teleport 模式下防止传送到别处绕过距离限制，camera 模式下防止切换附身对象
                 if (((PeekPlugin) plugin).getStateHandler().getActivePeeks().containsKey(player.getUniqueId())
                         && player.getGameMode() == GameMode.SPECTATOR) {
                     // 取消数据包，阻止传送
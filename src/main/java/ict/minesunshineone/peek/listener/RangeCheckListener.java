@@ -0,0 +1,41 @@
+package ict.minesunshineone.peek.listener;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import ict.minesunshineone.peek.handler.RangeChecker;
+
+/**
+ * 把玩家的位移转交给距离检查器
+ * 传送与换世界不受速度上限约束，两种模式下都立即触发检查；普通移动只在 range-check.mode 为 event 时转交，
+ * 且只转交位置的变化，仅转动视角不会触发检查。
+ */
+public class RangeCheckListener implements Listener {
+
+    private final RangeChecker rangeChecker;
+
+    public RangeCheckListener(RangeChecker rangeChecker) {
+        this.rangeChecker = rangeChecker;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        if (rangeChecker.isEventDriven() && event.hasChangedPosition()) {
+            rangeChecker.onPlayerMoved(event.getPlayer().getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        rangeChecker.onPlayerTeleported(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        rangeChecker.onPlayerTeleported(event.getPlayer().getUniqueId());
+    }
+}
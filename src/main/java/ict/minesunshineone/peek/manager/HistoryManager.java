@@ -0,0 +1,166 @@
+package ict.minesunshineone.peek.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+
+import ict.minesunshineone.peek.PeekPlugin;
+import ict.minesunshineone.peek.data.EndReason;
+import ict.minesunshineone.peek.data.PeekData;
+import ict.minesunshineone.peek.data.SessionRecord;
+import ict.minesunshineone.peek.storage.SessionHistoryLog;
+
+/**
+ * 会话历史管理器
+ * 会话结束时只把记录放入队列，由单独的写入线程追加到 {@link SessionHistoryLog}；
+ * 队列空时才刷新压缩流，高峰期多条记录合并为一次刷新。
+ */
+public class HistoryManager {
+
+    private static final int WRITER_QUEUE_CAPACITY = 4096;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final int HISTORY_LINES = 10;
+
+    private final PeekPlugin plugin;
+    private final boolean enabled;
+    private final SessionHistoryLog log;
+    // 单线程写入器：历史记录不影响玩家状态，队列满时直接丢弃，绝不阻塞区域线程
+    private final ThreadPoolExecutor writer;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public HistoryManager(PeekPlugin plugin) {
+        this.plugin = plugin;
+        this.enabled = plugin.getConfig().getBoolean("history.enabled", true);
+        this.log = new SessionHistoryLog(new File(plugin.getDataFolder(), "history"), plugin.getLogger(),
+                plugin.getConfig().getInt("history.rotate-records", 100000),
+                plugin.getConfig().getInt("history.max-files", 30));
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(WRITER_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Peek-History-Writer");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    throw new RejectedExecutionException(executor.isShutdown() ? "历史写入器已关闭" : "历史写入队列已满");
+                });
+    }
+
+    /**
+     * 记录一次已结束的会话；可在任意线程调用
+     */
+    public void record(UUID peeker, PeekData data, EndReason reason) {
+        if (!enabled || data == null) {
+            return;
+        }
+
+        long duration = (System.currentTimeMillis() - data.getStartTime()) / 1000;
+        SessionRecord record = new SessionRecord(peeker, data.getTargetUUID(), data.getStartTime(),
+                (int) Math.min(Math.max(duration, 0), Integer.MAX_VALUE), reason);
+        try {
+            writer.execute(() -> append(record));
+        } catch (RejectedExecutionException e) {
+            long total = dropped.incrementAndGet();
+            // 按 2 的幂次输出，避免队列持续满时刷屏
+            if (Long.bitCount(total) == 1) {
+                plugin.getLogger().warning(String.format("会话历史写入繁忙，已丢弃 %d 条记录", total));
+            }
+        }
+    }
+
+    /**
+     * 异步查询玩家最近的会话并发送给查询者
+     */
+    public void showHistory(Player viewer, OfflinePlayer player) {
+        if (!enabled) {
+            plugin.getMessages().send(viewer, "history-disabled");
+            return;
+        }
+
+        String playerName = player.getName() != null ? player.getName() : player.getUniqueId().toString();
+        plugin.getServer().getAsyncScheduler().runNow(plugin, task -> {
+            List<SessionRecord> records;
+            try {
+                records = log.findRecent(player.getUniqueId(), HISTORY_LINES);
+            } catch (IOException e) {
+                plugin.getLogger().warning(String.format("读取会话历史失败: %s", e.getMessage()));
+                viewer.getScheduler().run(plugin, t -> plugin.getMessages().send(viewer, "command-error"), null);
+                return;
+            }
+            // 名字解析可能读取玩家缓存，放在异步线程完成
+            String[][] lines = new String[records.size()][];
+            SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm");
+            for (int i = 0; i < records.size(); i++) {
+                SessionRecord record = records.get(i);
+                lines[i] = new String[]{
+                    "time", format.format(new Date(record.startTime())),
+                    "peeker", nameOf(record.peeker()),
+                    "target", nameOf(record.target()),
+                    "duration", String.valueOf(record.durationSeconds()),
+                    "reason", plugin.getMessages().get("end-reason-" + record.reason().getKey(),
+                    record.reason().getKey())
+                };
+            }
+
+            viewer.getScheduler().run(plugin, t -> {
+                if (lines.length == 0) {
+                    plugin.getMessages().send(viewer, "history-empty", "player", playerName);
+                    return;
+                }
+                plugin.getMessages().send(viewer, "history-header", "player", playerName);
+                for (String[] line : lines) {
+                    plugin.getMessages().send(viewer, "history-entry", line);
+                }
+            }, null);
+        });
+    }
+
+    /**
+     * 写完队列中的记录后关闭当前分段
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("等待会话历史写入完成超时，部分记录可能未保存");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            log.close();
+        } catch (IOException e) {
+            plugin.getLogger().warning(String.format("关闭会话历史时发生错误: %s", e.getMessage()));
+        }
+    }
+
+    // ==================== 私有方法 ====================
+
+    private void append(SessionRecord record) {
+        try {
+            log.append(record);
+            if (writer.getQueue().isEmpty()) {
+                log.flush();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning(String.format("写入会话历史失败: %s", e.getMessage()));
+        }
+    }
+
+    private String nameOf(UUID uuid) {
+        String name = plugin.getServer().getOfflinePlayer(uuid).getName();
+        return name != null ? name : uuid.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package ict.minesunshineone.peek.manager;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * 单个统计指标的前 N 名排行
+ * 统计值变化时增量更新有序集合（O(log n)）并把只读数组标记为过期；查询时若已过期才重建一次（O(n)），
+ * 之后的查询直接读取数组（O(1)）。连续的多次变化只在下一次查询时重建一次，
+ * 计分板每秒刷新变量也不需要对所有玩家排序。
+ *
+ * <p>统计值只增不减，因此只保留前 N 名仍然正确：跌出前 N 名的玩家只有在数值增长后才可能重新上榜，
+ * 而增长时一定会调用 {@link #update}。
+ */
+public class Leaderboard {
+
+    private static final Entry[] EMPTY = new Entry[0];
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingLong(Entry::value).reversed()
+            .thenComparing(Entry::uuid);
+
+    private final int capacity;
+    // ordered 与 entries 仅在持有对象锁时访问
+    private final TreeSet<Entry> ordered = new TreeSet<>(ORDER);
+    private final Map<UUID, Entry> entries = new HashMap<>();
+    // 当前排行的只读数组，排行变化后置为 null，由下一次查询重建
+    private volatile Entry[] ranking = EMPTY;
+
+    public Leaderboard(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * 更新玩家的统计值
+     *
+     * @param name 玩家名，为 null 时沿用已记录的名字
+     */
+    public synchronized void update(UUID uuid, String name, long value) {
+        Entry previous = entries.get(uuid);
+        if (previous != null) {
+            if (previous.value() == value && (name == null || name.equals(previous.name()))) {
+                return;
+            }
+            ordered.remove(previous);
+            if (name == null) {
+                name = previous.name();
+            }
+        } else if (ordered.size() >= capacity && value <= ordered.last().value()) {
+            // 未上榜且不超过末位，排行不变
+            return;
+        }
+
+        Entry entry = new Entry(uuid, name, value);
+        ordered.add(entry);
+        entries.put(uuid, entry);
+        while (ordered.size() > capacity) {
+            Entry dropped = ordered.pollLast();
+            entries.remove(dropped.uuid());
+        }
+        ranking = null;
+    }
+
+    /**
+     * 获取指定名次（从 1 开始）
+     *
+     * @return 对应名次，名次超出范围时返回 null
+     */
+    public Entry get(int rank) {
+        Entry[] current = snapshot();
+        return rank >= 1 && rank <= current.length ? current[rank - 1] : null;
+    }
+
+    /**
+     * 当前排行的只读快照，不要修改返回的数组
+     */
+    public Entry[] snapshot() {
+        Entry[] current = ranking;
+        return current != null ? current : rebuild();
+    }
+
+    private synchronized Entry[] rebuild() {
+        Entry[] current = ranking;
+        if (current == null) {
+            current = ordered.toArray(EMPTY);
+            ranking = current;
+        }
+        return current;
+    }
+
+    /**
+     * 排行中的一项
+     *
+     * @param uuid  玩家 UUID
+     * @param name  玩家名，可能为 null（从未见过的玩家）
+     * @param value 统计值
+     */
+    public record Entry(UUID uuid, String name, long value) {
+    }
+}
@@ -2,28 +2,45 @@ package ict.minesunshineone.peek.manager;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.nio.file.Files;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import org.bukkit.GameMode;
-import org.bukkit.Location;
-import org.bukkit.NamespacedKey;
-import org.bukkit.Registry;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
-import org.bukkit.potion.PotionEffect;
-import org.bukkit.potion.PotionEffectType;
 
 import ict.minesunshineone.peek.PeekPlugin;
 import ict.minesunshineone.peek.data.PeekData;
+import ict.minesunshineone.peek.storage.PeekDataCodec;
+import ict.minesunshineone.peek.storage.StateJournal;
 
 public class StateManager {
 
+    private static final String JOURNAL_FILE = "journal.dat";
+    // 待写入的任务超过该数量时拒绝新的保存（开始观察），清除与读取始终排队
+    private static final int WRITER_QUEUE_CAPACITY = 1024;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final long PRELOAD_TIMEOUT_SECONDS = 5;
+
     private final PeekPlugin plugin;
     private final File statesDir;
+    // 单线程写入器：保证同一玩家的 START/END 记录按提交顺序写入，且磁盘延迟不会落在区域线程上。
+    // 提交从不阻塞：积压过多时新的保存直接失败（由调用方取消本次观察），END 记录不会因此丢失。
+    private final ThreadPoolExecutor writer;
+    // 尚未恢复的会话索引：启动时从状态日志构建一次，之后随保存/清除同步更新，
+    // 玩家加入时据此判断是否需要读取状态，绝大多数玩家无需任何磁盘 IO
+    private final Set<UUID> pendingStates = ConcurrentHashMap.newKeySet();
+    // 预登录阶段已解码的状态，由加入事件取走；登录被拒绝的条目会在该玩家下次预登录时覆盖
+    private final Map<UUID, CompletableFuture<PeekData>> preloadedStates = new ConcurrentHashMap<>();
+    private StateJournal journal;
 
     public StateManager(PeekPlugin plugin) {
         this.plugin = plugin;
@@ -31,115 +48,220 @@ public class StateManager {
         if (!statesDir.exists()) {
             statesDir.mkdirs();
         }
-    }
-
-    public void savePlayerState(Player player, PeekData data) {
-        File stateFile = new File(statesDir, player.getUniqueId() + ".yml");
-        YamlConfiguration config = new YamlConfiguration();
-
-        // 保存原有状态数据
-        config.set("location", data.getOriginalLocation());
-        config.set("gamemode", data.getOriginalGameMode().name());
-        config.set("target", data.getTargetUUID().toString());
-        config.set("startTime", data.getStartTime());
-
-        // 保存新增状态数据
-        config.set("health", data.getHealth());
-        config.set("food_level", data.getFoodLevel());
-        config.set("saturation", data.getSaturation());
-
-        // 保存药水效果
-        List<Map<String, Object>> effects = new ArrayList<>();
-        for (PotionEffect effect : data.getPotionEffects()) {
-            Map<String, Object> effectMap = new HashMap<>();
-            // 使用命名空间键（如 minecraft:speed）替代已弃用的 getName()
-            effectMap.put("type", effect.getType().getKey().asString());
-            effectMap.put("duration", effect.getDuration());
-            effectMap.put("amplifier", effect.getAmplifier());
-            effectMap.put("ambient", effect.isAmbient());
-            effectMap.put("particles", effect.hasParticles());
-            effectMap.put("icon", effect.hasIcon());
-            effects.add(effectMap);
-        }
-        config.set("potion_effects", effects);
 
+        int compactThreshold = plugin.getConfig().getInt("state.journal-compact-threshold", 256);
         try {
-            config.save(stateFile);
+            this.journal = new StateJournal(new File(statesDir, JOURNAL_FILE), plugin.getLogger(), compactThreshold);
+            migrateLegacyStateFiles();
+            pendingStates.addAll(journal.liveIds());
         } catch (IOException e) {
-            plugin.getLogger().warning(String.format("无法保存玩家 %s 的状态", player.getName()));
+            plugin.getLogger().severe(String.format("无法打开状态日志，Peek 状态将不会被保存: %s", e.getMessage()));
         }
+
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Peek-State-Writer");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    throw new RejectedExecutionException("状态写入器已关闭");
+                });
     }
 
-    public PeekData getPlayerState(Player player) {
-        File stateFile = new File(statesDir, player.getUniqueId() + ".yml");
-        if (!stateFile.exists()) {
+    /**
+     * 异步保存玩家状态
+     * 返回的 Future 在 START 记录落盘后完成；调用方必须等待其完成后才能把玩家切换为旁观模式，
+     * 保证玩家绝不会在没有可恢复状态的情况下卡在旁观模式。
+     *
+     * @return 保存完成的 Future，保存失败或写入队列积压过多时异常完成
+     */
+    public CompletableFuture<Void> savePlayerState(Player player, PeekData data) {
+        int backlog = writer.getQueue().size();
+        if (backlog >= WRITER_QUEUE_CAPACITY) {
+            plugin.getLogger().warning(String.format("状态写入繁忙（积压 %d 条），已拒绝玩家 %s 开始观察",
+                    backlog, player.getName()));
+            return CompletableFuture.failedFuture(new RejectedExecutionException("状态写入队列已满"));
+        }
+
+        UUID uuid = player.getUniqueId();
+        pendingStates.add(uuid);
+        return submit(() -> {
+            writePlayerState(uuid, data);
             return null;
+        });
+    }
+
+    /**
+     * 保存失败后撤销状态索引中的记录，之后该玩家加入时不必再查询状态日志
+     */
+    public void discardFailedSave(UUID uuid) {
+        pendingStates.remove(uuid);
+    }
+
+    private void writePlayerState(UUID uuid, PeekData data) throws IOException {
+        if (journal == null) {
+            throw new IOException("状态日志不可用");
         }
+        journal.appendStart(uuid, out -> PeekDataCodec.encode(data, out));
+    }
 
-        YamlConfiguration config = YamlConfiguration.loadConfiguration(stateFile);
+    /**
+     * 玩家是否有尚未恢复的会话状态（仅查询内存索引，不访问磁盘）
+     */
+    public boolean hasPendingState(UUID uuid) {
+        return pendingStates.contains(uuid);
+    }
+
+    /**
+     * 在写入线程上异步读取玩家尚未恢复的状态，读取会排在该玩家之前提交的写入之后
+     *
+     * @return 状态数据的 Future，没有状态或读取失败时结果为 null
+     */
+    public CompletableFuture<PeekData> loadPlayerState(Player player) {
+        return loadPlayerState(player.getUniqueId(), player.getName());
+    }
+
+    private CompletableFuture<PeekData> loadPlayerState(UUID uuid, String name) {
+        if (!pendingStates.contains(uuid)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return submit(() -> journal != null
+                ? journal.read(uuid, payload -> PeekDataCodec.decode(payload, plugin.getLogger()))
+                : null)
+                .exceptionally(ex -> {
+                    plugin.getLogger().warning(String.format("无法加载玩家 %s 的状态: %s", name, ex.getMessage()));
+                    return null;
+                });
+    }
+
+    /**
+     * 在异步预登录线程上预先读取并解码玩家的未恢复状态，供加入事件直接使用。
+     * 该线程允许阻塞，等待读取完成可保证加入时状态已就绪；超时则由加入事件继续等待同一个 Future。
+     */
+    public void preloadPlayerState(UUID uuid, String name) {
+        if (!pendingStates.contains(uuid)) {
+            return;
+        }
+
+        CompletableFuture<PeekData> future = loadPlayerState(uuid, name);
+        preloadedStates.put(uuid, future);
         try {
-            Location location = (Location) config.get("location");
-            GameMode gameMode = GameMode.valueOf(config.getString("gamemode"));
-            UUID targetUUID = UUID.fromString(config.getString("target"));
-            long startTime = config.getLong("startTime");
-
-            // 加载新增状态数据
-            double health = config.getDouble("health", 20.0);
-            int foodLevel = config.getInt("food_level", 20);
-            float saturation = (float) config.getDouble("saturation", 5.0);
-
-            // 加载药水效果
-            List<PotionEffect> effects = new ArrayList<>();
-            List<Map<?, ?>> effectsList = config.getMapList("potion_effects");
-            for (Map<?, ?> effectMap : effectsList) {
-                String typeName = (String) effectMap.get("type");
-                PotionEffectType type = resolvePotionEffectType(typeName);
-                if (type != null) {
-                    effects.add(new PotionEffect(
-                            type,
-                            ((Number) effectMap.get("duration")).intValue(),
-                            ((Number) effectMap.get("amplifier")).intValue(),
-                            (Boolean) effectMap.get("ambient"),
-                            (Boolean) effectMap.get("particles"),
-                            (Boolean) effectMap.get("icon")
-                    ));
-                } else {
-                    plugin.getLogger().warning(String.format(
-                            "无法解析玩家 %s 的药水效果类型 \"%s\"，已跳过", player.getName(), typeName));
-                }
+            future.get(PRELOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            plugin.getLogger().warning(String.format("预加载玩家 %s 的状态超时，将在加入后继续等待", name));
+        } catch (ExecutionException e) {
+            // loadPlayerState 已记录失败原因并以 null 完成
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 取走预登录阶段预加载的状态
+     *
+     * @return 预加载的 Future，未预加载时返回 null
+     */
+    public CompletableFuture<PeekData> takePreloadedState(UUID uuid) {
+        return preloadedStates.remove(uuid);
+    }
+
+    /**
+     * 异步清除玩家状态（追加 END 记录），与之前提交的保存按顺序执行
+     */
+    public CompletableFuture<Void> clearPlayerState(Player player) {
+        UUID uuid = player.getUniqueId();
+        String name = player.getName();
+        pendingStates.remove(uuid);
+        return submit(() -> {
+            if (journal != null) {
+                journal.appendEnd(uuid);
             }
+            return (Void) null;
+        }).whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                plugin.getLogger().warning(String.format("无法清除玩家 %s 的状态: %s", name, ex.getMessage()));
+            }
+        });
+    }
 
-            return new PeekData(location, gameMode, targetUUID, startTime, health, foodLevel, saturation, effects);
-        } catch (Exception e) {
-            plugin.getLogger().warning(String.format("无法加载玩家 %s 的状态: %s", player.getName(), e.getMessage()));
-            return null;
+    /**
+     * 等待写入队列清空后关闭状态日志（压缩并落盘）
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("等待状态写入完成超时，部分状态可能未保存");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.close();
+        } catch (IOException e) {
+            plugin.getLogger().warning(String.format("关闭状态日志时发生错误: %s", e.getMessage()));
         }
     }
 
-    public void clearPlayerState(Player player) {
-        File stateFile = new File(statesDir, player.getUniqueId() + ".yml");
-        if (stateFile.exists()) {
-            stateFile.delete();
+    /**
+     * 把 IO 任务提交到写入线程
+     */
+    private <T> CompletableFuture<T> submit(IoTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            writer.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
         }
+        return future;
+    }
+
+    @FunctionalInterface
+    private interface IoTask<T> {
+
+        T call() throws IOException;
     }
 
     /**
-     * 解析药水效果类型，优先使用命名空间键（minecraft:speed），
-     * 兼容旧状态文件中的大写枚举名（如 "SPEED"）。
+     * 将旧版本遗留的 states/&lt;uuid&gt;.yml 文件导入状态日志，导入成功后删除原文件。
+     * 文件内容原样作为 START 记录的负载写入，读取时由 PeekDataCodec 按旧版 YAML 格式解析。
      */
-    @SuppressWarnings("deprecation")
-    private PotionEffectType resolvePotionEffectType(String name) {
-        if (name == null) {
-            return null;
+    private void migrateLegacyStateFiles() throws IOException {
+        File[] legacyFiles = statesDir.listFiles((dir, name) -> name.endsWith(".yml"));
+        if (legacyFiles == null) {
+            return;
         }
-        NamespacedKey key = NamespacedKey.fromString(name);
-        if (key != null) {
-            PotionEffectType type = Registry.EFFECT.get(key);
-            if (type != null) {
-                return type;
+
+        for (File legacyFile : legacyFiles) {
+            String name = legacyFile.getName();
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(name.substring(0, name.length() - ".yml".length()));
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning(String.format("跳过无法识别的状态文件: %s", name));
+                continue;
+            }
+
+            if (!journal.contains(uuid)) {
+                byte[] legacyPayload = Files.readAllBytes(legacyFile.toPath());
+                journal.appendStart(uuid, out -> out.put(legacyPayload));
             }
+            Files.delete(legacyFile.toPath());
+            plugin.getLogger().info(String.format("已将旧状态文件 %s 迁移到状态日志", name));
         }
-        // 回退到旧的按名称查找，保证老状态文件可正常读取
-        return PotionEffectType.getByName(name);
     }
 }
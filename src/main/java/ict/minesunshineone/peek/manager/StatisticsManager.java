@@ -2,48 +2,175 @@ package ict.minesunshineone.peek.manager;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
-import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 
 import ict.minesunshineone.peek.PeekPlugin;
+import ict.minesunshineone.peek.data.PeekGraph;
+import ict.minesunshineone.peek.data.StatsTable;
+import ict.minesunshineone.peek.data.StatsWindow;
+import ict.minesunshineone.peek.storage.PeekGraphFile;
+import ict.minesunshineone.peek.storage.SqlStatsStore;
+import ict.minesunshineone.peek.storage.StatsExporter;
+import ict.minesunshineone.peek.storage.StatsMetric;
+import ict.minesunshineone.peek.storage.StatsRecord;
+import ict.minesunshineone.peek.storage.StatsStore;
+import ict.minesunshineone.peek.storage.StatsWindowFile;
+import ict.minesunshineone.peek.storage.YamlStatsStore;
 import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 
 public class StatisticsManager {
 
+    private static final double SLOW_SAVE_MILLIS = 100.0;
+    private static final long EXPORT_PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+    public static final int HOURS_24H = StatsWindow.HOURS_PER_DAY;
+    public static final int HOURS_7D = StatsWindow.BUCKETS;
+
     private final PeekPlugin plugin;
-    private final Map<UUID, PlayerStats> stats = new ConcurrentHashMap<>();
-    private final File statsFile;
+    // 只保存在线玩家与最近访问过的离线玩家，其余玩家的数据留在存储后端中按需加载
+    private final StatsTable table = new StatsTable();
     private ScheduledTask autoSaveTask;
     private final boolean enabled;
 
+    // 自上次保存以来发生变化的玩家；每次保存只把这些玩家交给存储后端
+    private final Set<UUID> dirty = ConcurrentHashMap.newKeySet();
+    private final int snapshotEvery;
+    // 存储后端在异步线程上打开，就绪前查询统计返回“加载中”
+    private volatile StatsStore store;
+    private final CompletableFuture<Void> storeReady = new CompletableFuture<>();
+
+    // 离线玩家的 LRU 缓存：超出容量的最早访问者进入淘汰队列，下一次保存写出后从统计表移除。
+    // 数据库存储按需读取，淘汰即释放内存；yaml 存储自身常驻全部记录，淘汰只缩小统计表
+    private final int offlineCacheSize;
+    private final Map<UUID, Boolean> offlineCache;
+    private final Queue<UUID> evictionQueue = new ConcurrentLinkedQueue<>();
+    private final Map<UUID, CompletableFuture<PlayerStats>> loading = new ConcurrentHashMap<>();
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+    private volatile boolean shuttingDown;
+
+    // 最近 7 天的按小时统计，只保留窗口内有记录的玩家，与累计统计的 LRU 缓存无关
+    private final Map<UUID, StatsWindow> windows = new ConcurrentHashMap<>();
+    private final AtomicBoolean windowsChanged = new AtomicBoolean();
+    private StatsWindowFile windowFile;
+
+    // 谁观察谁：按玩家编号存放的观察次数
+    private final PeekGraph graph = new PeekGraph();
+    private final AtomicBoolean graphChanged = new AtomicBoolean();
+    private PeekGraphFile graphFile;
+
+    private final int leaderboardSize;
+    private final Map<StatsMetric, Leaderboard> leaderboards = new EnumMap<>(StatsMetric.class);
+
+    // 保存互斥：自动保存与关服保存绝不重叠；保存进行中再次请求时合并为一次后续保存
+    private final ReentrantLock saveLock = new ReentrantLock();
+    private final AtomicBoolean saveRequested = new AtomicBoolean();
+    private volatile long lastSaveNanos;
+    private volatile int lastSaveRecords;
+
+    // 同一时间只允许一个导出任务
+    private final AtomicBoolean exporting = new AtomicBoolean();
+
     public StatisticsManager(PeekPlugin plugin) {
         this.plugin = plugin;
-        this.statsFile = new File(plugin.getDataFolder(), "stats.yml");
         this.enabled = plugin.getConfig().getBoolean("statistics.enabled", true);
+        this.snapshotEvery = Math.max(1, plugin.getConfig().getInt("statistics.snapshot-every", 12));
+        this.leaderboardSize = Math.max(1, plugin.getConfig().getInt("statistics.leaderboard-size", 100));
+        for (StatsMetric metric : StatsMetric.values()) {
+            leaderboards.put(metric, new Leaderboard(leaderboardSize));
+        }
+        this.offlineCacheSize = Math.max(0, plugin.getConfig().getInt("statistics.offline-cache-size", 500));
+        this.offlineCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Boolean> eldest) {
+                if (size() <= offlineCacheSize) {
+                    return false;
+                }
+                evictionQueue.add(eldest.getKey());
+                return true;
+            }
+        };
 
         if (enabled) {
-            loadStats();
+            // 解析统计文件可能较慢，不阻塞服务器启动
+            plugin.getServer().getAsyncScheduler().runNow(plugin, task -> initStore());
             startAutoSave();
         }
     }
 
+    private void initStore() {
+        long startNanos = System.nanoTime();
+        StatsStore opened = openStore();
+        seedLeaderboards(opened);
+        loadWindows();
+        loadGraph();
+        store = opened;
+        storeReady.complete(null);
+
+        int records;
+        try {
+            records = opened.size();
+        } catch (IOException e) {
+            records = -1;
+        }
+        plugin.getLogger().info(String.format("统计数据已就绪：%d 名玩家，耗时 %.1f ms",
+                records, (System.nanoTime() - startNanos) / 1_000_000.0));
+
+        // 插件重载时已在线的玩家不会再触发加入事件
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            getPlayerStatsAsync(player.getUniqueId());
+        }
+    }
+
+    /**
+     * 存储后端是否已完成加载
+     */
+    public boolean isReady() {
+        return storeReady.isDone();
+    }
+
     public void recordPeekStart(Player peeker, Player target) {
         if (!enabled) {
             return;
         }
 
-        stats.computeIfAbsent(peeker.getUniqueId(), k -> new PlayerStats())
-                .incrementPeekCount();
-        stats.computeIfAbsent(target.getUniqueId(), k -> new PlayerStats())
-                .incrementPeekedCount();
+        // 双方都在线，编号在此期间不会被回收
+        int peekerSlot = table.intern(peeker.getUniqueId());
+        table.add(peekerSlot, StatsMetric.PEEK_COUNT, 1);
+        int targetSlot = table.intern(target.getUniqueId());
+        table.add(targetSlot, StatsMetric.PEEKED_COUNT, 1);
+        // 先更新再标记：保存线程清除标记后读取到的一定是不旧于标记时的值
+        dirty.add(peeker.getUniqueId());
+        dirty.add(target.getUniqueId());
+
+        long hour = StatsWindow.hourOf(System.currentTimeMillis());
+        addToWindow(peeker.getUniqueId(), hour, 1, 0, 0);
+        addToWindow(target.getUniqueId(), hour, 0, 1, 0);
+
+        if (!peeker.getUniqueId().equals(target.getUniqueId())) {
+            graph.increment(peeker.getUniqueId(), target.getUniqueId());
+            graphChanged.set(true);
+        }
+
+        updateLeaderboards(peeker.getUniqueId(), peeker.getName(), peekerSlot);
+        if (targetSlot != peekerSlot) {
+            updateLeaderboards(target.getUniqueId(), target.getName(), targetSlot);
+        }
     }
 
     public void recordPeekEnd(Player peeker, long durationSeconds) {
@@ -59,62 +186,466 @@ public class StatisticsManager {
             durationSeconds = 0;
         }
 
-        stats.computeIfAbsent(peeker.getUniqueId(), k -> new PlayerStats())
-                .addPeekDuration(durationSeconds);
+        int peekerSlot = table.intern(peeker.getUniqueId());
+        table.add(peekerSlot, StatsMetric.TOTAL_DURATION, durationSeconds);
+        dirty.add(peeker.getUniqueId());
+        addToWindow(peeker.getUniqueId(), StatsWindow.hourOf(System.currentTimeMillis()), 0, 0,
+                (int) Math.min(durationSeconds, Integer.MAX_VALUE));
+        updateLeaderboards(peeker.getUniqueId(), peeker.getName(), peekerSlot);
     }
 
-    public PlayerStats getPlayerStats(Player player) {
-        return stats.getOrDefault(player.getUniqueId(), new PlayerStats());
+    /**
+     * 最近 hours 小时内的指标总和（最多 7 天）
+     */
+    public long getRecent(UUID uuid, StatsMetric metric, int hours) {
+        StatsWindow window = windows.get(uuid);
+        return window == null ? 0 : window.sum(metric, hours, StatsWindow.hourOf(System.currentTimeMillis()));
+    }
+
+    private void addToWindow(UUID uuid, long hour, int peekCount, int peekedCount, int durationSeconds) {
+        // 在 compute 内累加，与保存时清理空窗口的 computeIfPresent 互斥，不会写进已被移除的窗口
+        windows.compute(uuid, (k, window) -> {
+            StatsWindow target = window != null ? window : new StatsWindow();
+            target.add(hour, peekCount, peekedCount, durationSeconds);
+            return target;
+        });
+        windowsChanged.set(true);
+    }
+
+    private void loadWindows() {
+        windowFile = new StatsWindowFile(new File(plugin.getDataFolder(), "stats-window.dat"));
+        try {
+            // 与加载期间已产生的新记录合并
+            windowFile.load((uuid, loaded) -> windows.merge(uuid, loaded, (existing, fromFile) -> {
+                existing.addAll(fromFile);
+                return existing;
+            }));
+        } catch (IOException e) {
+            plugin.getLogger().warning(String.format("无法加载最近 7 天的统计: %s", e.getMessage()));
+        }
     }
 
-    private void loadStats() {
-        if (!statsFile.exists()) {
+    /**
+     * 写出按小时统计，顺带移除已整段过期的玩家。调用方必须持有 saveLock。
+     */
+    private void persistWindows() {
+        if (!windowsChanged.getAndSet(false)) {
             return;
         }
+        long nowHour = StatsWindow.hourOf(System.currentTimeMillis());
+        for (UUID uuid : windows.keySet()) {
+            windows.computeIfPresent(uuid, (k, window) -> window.isEmpty(nowHour) ? null : window);
+        }
+        try {
+            windowFile.save(windows);
+        } catch (IOException e) {
+            windowsChanged.set(true);
+            plugin.getLogger().severe(String.format("无法保存最近 7 天的统计: %s", e.getMessage()));
+        }
+    }
 
+    /**
+     * 该玩家最常观察的 k 名玩家；只遍历该玩家自己的观察关系（O(出度)），可在任意线程调用
+     */
+    public List<PeekGraph.PairCount> getTopTargets(UUID peeker, int k) {
+        return graph.topTargets(peeker, k);
+    }
+
+    /**
+     * 最常观察该玩家的 k 名玩家；只遍历观察过该玩家的关系（O(入度)），可在任意线程调用
+     */
+    public List<PeekGraph.PairCount> getTopWatchers(UUID target, int k) {
+        return graph.topWatchers(target, k);
+    }
+
+    private void loadGraph() {
+        graphFile = new PeekGraphFile(new File(plugin.getDataFolder(), "stats-graph.dat"));
         try {
-            FileConfiguration config = YamlConfiguration.loadConfiguration(statsFile);
-            for (String uuidStr : config.getKeys(false)) {
+            graphFile.load(graph);
+        } catch (IOException e) {
+            plugin.getLogger().warning(String.format("无法加载观察关系数据: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * 关系表有变化时整体写出。调用方必须持有 saveLock。
+     */
+    private void persistGraph() {
+        if (!graphChanged.getAndSet(false)) {
+            return;
+        }
+        try {
+            graphFile.save(graph.snapshot());
+        } catch (IOException e) {
+            graphChanged.set(true);
+            plugin.getLogger().severe(String.format("无法保存观察关系数据: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * 获取指定指标的排行
+     */
+    public Leaderboard getLeaderboard(StatsMetric metric) {
+        return leaderboards.get(metric);
+    }
+
+    private void updateLeaderboards(UUID uuid, String name, int slot) {
+        // 加载完成前的计数只是增量，不能代表玩家的真实排名
+        if (!table.isLoaded(slot)) {
+            return;
+        }
+        StatsRecord record = table.toRecord(slot, uuid);
+        for (Map.Entry<StatsMetric, Leaderboard> entry : leaderboards.entrySet()) {
+            entry.getValue().update(uuid, name, record.value(entry.getKey()));
+        }
+    }
+
+    /**
+     * 用存储后端中各指标的前 N 名初始化排行，之后由统计更新增量维护
+     */
+    private void seedLeaderboards(StatsStore opened) {
+        for (Map.Entry<StatsMetric, Leaderboard> entry : leaderboards.entrySet()) {
+            try {
+                for (StatsRecord record : opened.top(entry.getKey(), leaderboardSize)) {
+                    String name = plugin.getServer().getOfflinePlayer(record.uuid()).getName();
+                    entry.getValue().update(record.uuid(), name, record.value(entry.getKey()));
+                }
+            } catch (IOException e) {
+                plugin.getLogger().warning(String.format("无法加载 %s 排行: %s", entry.getKey().getKey(), e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * 获取在线玩家的统计数据；数据仍在加载时返回空统计
+     */
+    public PlayerStats getPlayerStats(Player player) {
+        PlayerStats playerStats = loadedStats(player.getUniqueId());
+        return playerStats != null ? playerStats : PlayerStats.EMPTY;
+    }
+
+    /**
+     * 获取已加载的统计数据，不阻塞
+     * 未加载（包括存储后端仍在启动）时在后台开始加载并返回 null，调用方稍后再次查询即可命中缓存。
+     */
+    public PlayerStats getCachedPlayerStats(UUID uuid) {
+        if (!enabled) {
+            return PlayerStats.EMPTY;
+        }
+        PlayerStats playerStats = loadedStats(uuid);
+        if (playerStats != null) {
+            touchOffline(uuid);
+            return playerStats;
+        }
+        getPlayerStatsAsync(uuid);
+        return null;
+    }
+
+    /**
+     * 获取任意玩家（包括离线玩家）的统计数据，必要时在异步线程从存储后端加载
+     */
+    public CompletableFuture<PlayerStats> getPlayerStatsAsync(UUID uuid) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(PlayerStats.EMPTY);
+        }
+        PlayerStats playerStats = loadedStats(uuid);
+        if (playerStats != null) {
+            touchOffline(uuid);
+            return CompletableFuture.completedFuture(playerStats);
+        }
+        return loading.computeIfAbsent(uuid, this::startLoad);
+    }
+
+    /**
+     * 已加载玩家的统计快照，未加载时返回 null
+     */
+    private PlayerStats loadedStats(UUID uuid) {
+        int slot = table.find(uuid);
+        if (slot < 0 || !table.isLoaded(slot)) {
+            return null;
+        }
+        return new PlayerStats(table, slot, uuid);
+    }
+
+    /**
+     * 玩家加入：从离线缓存中移出并开始加载统计数据
+     */
+    public void handleJoin(Player player) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (offlineCache) {
+            offlineCache.remove(player.getUniqueId());
+        }
+        getPlayerStatsAsync(player.getUniqueId());
+    }
+
+    /**
+     * 玩家离开：统计数据转入离线 LRU 缓存，超出容量后被淘汰
+     */
+    public void handleQuit(Player player) {
+        if (!enabled) {
+            return;
+        }
+        rememberOffline(player.getUniqueId());
+    }
+
+    private CompletableFuture<PlayerStats> startLoad(UUID uuid) {
+        CompletableFuture<PlayerStats> future = new CompletableFuture<>();
+        storeReady.thenRun(() -> plugin.getServer().getAsyncScheduler().runNow(plugin, task -> {
+            try {
+                PlayerStats playerStats = loadInto(uuid);
+                if (plugin.getServer().getPlayer(uuid) == null) {
+                    touchOffline(uuid);
+                }
+                future.complete(playerStats);
+            } catch (IOException e) {
+                plugin.getLogger().warning(String.format("无法加载玩家 %s 的统计数据: %s", uuid, e.getMessage()));
+                future.completeExceptionally(e);
+            } finally {
+                loading.remove(uuid, future);
+            }
+        }));
+        return future;
+    }
+
+    /**
+     * 从存储后端读取并合并到内存中的统计；加载完成前产生的计数以增量形式保留
+     */
+    private PlayerStats loadInto(UUID uuid) throws IOException {
+        StatsRecord record = store.load(uuid);
+        int slot = table.mergeLoaded(uuid, record);
+        Player player = plugin.getServer().getPlayer(uuid);
+        updateLeaderboards(uuid, player != null ? player.getName() : null, slot);
+        return new PlayerStats(table, slot, uuid);
+    }
+
+    private void touchOffline(UUID uuid) {
+        if (plugin.getServer().getPlayer(uuid) == null) {
+            rememberOffline(uuid);
+        }
+    }
+
+    private void rememberOffline(UUID uuid) {
+        synchronized (offlineCache) {
+            offlineCache.put(uuid, Boolean.TRUE);
+        }
+        // 淘汰前必须先写出，交给异步线程合并到一次保存中
+        if (!evictionQueue.isEmpty() && evictionScheduled.compareAndSet(false, true)) {
+            plugin.getServer().getAsyncScheduler().runNow(plugin, task -> saveStats());
+        }
+    }
+
+    /**
+     * 根据配置创建统计存储（默认数据库）；数据库为空时自动导入旧的 stats.yml
+     */
+    private StatsStore openStore() {
+        String type = plugin.getConfig().getString("statistics.storage", "sqlite");
+        boolean yaml = "yaml".equalsIgnoreCase(type);
+        if (!yaml && !"sqlite".equalsIgnoreCase(type)) {
+            plugin.getLogger().warning(String.format("未知的统计存储类型 \"%s\"，使用 sqlite", type));
+        }
+        if (!yaml) {
+            SqlStatsStore sqlStore = new SqlStatsStore(new File(plugin.getDataFolder(), "stats.db"), plugin.getLogger());
+            try {
+                sqlStore.open();
+                migrateYamlStats(sqlStore);
+                return sqlStore;
+            } catch (IOException e) {
+                plugin.getLogger().severe(String.format("无法打开统计数据库，改用 stats.yml: %s", e.getMessage()));
                 try {
-                    UUID uuid = UUID.fromString(uuidStr);
-                    int peekCount = Math.max(0, config.getInt(uuidStr + ".peek_count", 0));
-                    int peekedCount = Math.max(0, config.getInt(uuidStr + ".peeked_count", 0));
-                    long totalDuration = Math.max(0, config.getLong(uuidStr + ".total_duration", 0));
-
-                    PlayerStats playerStats = new PlayerStats();
-                    playerStats.setPeekCount(peekCount);
-                    playerStats.setPeekedCount(peekedCount);
-                    playerStats.setTotalDuration(totalDuration);
-                    stats.put(uuid, playerStats);
-                } catch (IllegalArgumentException e) {
-                    plugin.getLogger().warning(String.format("无效的 UUID: %s", uuidStr));
+                    sqlStore.close();
+                } catch (IOException ignored) {
+                    // 数据库本就无法使用
                 }
             }
-        } catch (Exception e) {
+        }
+
+        YamlStatsStore yamlStore = new YamlStatsStore(plugin.getDataFolder(), plugin.getLogger(), snapshotEvery);
+        try {
+            yamlStore.open();
+        } catch (IOException e) {
+            // 加载失败时存储拒绝写入，避免用不完整的数据覆盖 stats.yml；之后的访问会重试加载
             plugin.getLogger().severe(String.format("无法加载统计数据: %s", e.getMessage()));
         }
+        return yamlStore;
+    }
+
+    private void migrateYamlStats(SqlStatsStore sqlStore) throws IOException {
+        File statsFile = new File(plugin.getDataFolder(), "stats.yml");
+        if (!statsFile.exists() || sqlStore.size() > 0) {
+            return;
+        }
+
+        List<StatsRecord> records = new ArrayList<>();
+        try (YamlStatsStore yamlStore = new YamlStatsStore(plugin.getDataFolder(), plugin.getLogger(), snapshotEvery)) {
+            yamlStore.loadAll(records::add);
+        }
+        sqlStore.save(records);
+
+        File migratedFile = new File(plugin.getDataFolder(), "stats.yml.migrated");
+        if (!statsFile.renameTo(migratedFile)) {
+            plugin.getLogger().warning("无法重命名已导入的 stats.yml，请手动删除以免重复导入");
+        }
+        new File(plugin.getDataFolder(), "stats.delta").delete();
+        plugin.getLogger().info(String.format("已将 %d 条统计数据从 stats.yml 导入数据库", records.size()));
     }
 
+    /**
+     * 请求保存统计数据
+     * 如果已有保存正在进行，本次请求会合并到该保存结束后的下一轮，调用方不会阻塞等待。
+     */
     public void saveStats() {
         if (!enabled) {
             return;
         }
 
-        FileConfiguration config = new YamlConfiguration();
-        stats.forEach((uuid, playerStats) -> {
-            String path = uuid.toString();
-            config.set(path + ".peek_count", playerStats.getPeekCount());
-            config.set(path + ".peeked_count", playerStats.getPeekedCount());
-            config.set(path + ".total_duration", playerStats.getTotalDuration());
-        });
+        saveRequested.set(true);
+        do {
+            if (!saveLock.tryLock()) {
+                return;
+            }
+            try {
+                while (saveRequested.getAndSet(false)) {
+                    persist();
+                }
+            } finally {
+                saveLock.unlock();
+            }
+            // 释放锁与最后一次检查之间可能有新的请求到达，由当前线程继续处理
+        } while (saveRequested.get());
+    }
+
+    /**
+     * 阻塞直到正在进行的保存结束，然后写入最新数据
+     */
+    private void saveStatsBlocking() {
+        if (!enabled) {
+            return;
+        }
 
+        saveLock.lock();
         try {
-            config.save(statsFile);
+            saveRequested.set(false);
+            persist();
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    /**
+     * 把自上次保存以来发生变化的玩家交给存储后端。调用方必须持有 saveLock。
+     */
+    private void persist() {
+        if (store == null) {
+            // 存储后端尚未就绪，变化标记保留到下一次保存
+            return;
+        }
+        persistWindows();
+        persistGraph();
+
+        long startNanos = System.nanoTime();
+        // 先取走变化标记再读取数值：取走之后的变化会重新标记，留给下一次保存
+        List<StatsRecord> changed = new ArrayList<>();
+        List<UUID> notLoaded = new ArrayList<>();
+        Iterator<UUID> iterator = dirty.iterator();
+        while (iterator.hasNext()) {
+            UUID uuid = iterator.next();
+            iterator.remove();
+            int slot = table.find(uuid);
+            if (slot < 0) {
+                continue;
+            }
+            if (!table.isLoaded(slot)) {
+                // 尚未合并已保存的值时写出会覆盖存储中的数据；关服时就地加载，否则留给下一次保存
+                if (!shuttingDown || !loadBeforeShutdown(uuid)) {
+                    notLoaded.add(uuid);
+                    continue;
+                }
+            }
+            changed.add(table.toRecord(slot, uuid));
+        }
+        dirty.addAll(notLoaded);
+
+        try {
+            store.save(changed);
         } catch (IOException e) {
+            // 记录的是绝对值，重新标记后下次保存重写即可
+            for (StatsRecord record : changed) {
+                dirty.add(record.uuid());
+            }
             plugin.getLogger().severe(String.format("无法保存统计数据: %s", e.getMessage()));
+            return;
+        }
+
+        if (!changed.isEmpty()) {
+            reportSaveDuration(changed.size(), System.nanoTime() - startNanos);
+        }
+        evictSaved();
+    }
+
+    private boolean loadBeforeShutdown(UUID uuid) {
+        try {
+            loadInto(uuid);
+            return true;
+        } catch (IOException e) {
+            plugin.getLogger().severe(String.format("无法加载玩家 %s 的统计数据，本次变化未能保存: %s", uuid, e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * 移除已被 LRU 淘汰且已写出的离线玩家。调用方必须持有 saveLock。
+     */
+    private void evictSaved() {
+        evictionScheduled.set(false);
+        int size = evictionQueue.size();
+        for (int i = 0; i < size; i++) {
+            UUID uuid = evictionQueue.poll();
+            if (uuid == null) {
+                break;
+            }
+            if (dirty.contains(uuid)) {
+                // 写出失败或淘汰后又有变化，等下一次保存
+                evictionQueue.add(uuid);
+                continue;
+            }
+            synchronized (offlineCache) {
+                // 玩家重新加入或再次被访问时保留
+                if (offlineCache.containsKey(uuid) || plugin.getServer().getPlayer(uuid) != null) {
+                    continue;
+                }
+                table.remove(uuid);
+            }
         }
     }
 
+    private void reportSaveDuration(int records, long elapsedNanos) {
+        lastSaveNanos = elapsedNanos;
+        lastSaveRecords = records;
+
+        double elapsedMillis = elapsedNanos / 1_000_000.0;
+        if (elapsedMillis >= SLOW_SAVE_MILLIS) {
+            plugin.getLogger().info(String.format("统计数据已保存：%d 条记录，耗时 %.1f ms", records, elapsedMillis));
+        } else {
+            plugin.logDebug("Saved statistics: %d records in %.1f ms", records, elapsedMillis);
+        }
+    }
+
+    /**
+     * 最近一次保存的耗时（纳秒）
+     */
+    public long getLastSaveNanos() {
+        return lastSaveNanos;
+    }
+
+    /**
+     * 最近一次保存写入的记录数
+     */
+    public int getLastSaveRecords() {
+        return lastSaveRecords;
+    }
+
     private void startAutoSave() {
         int saveInterval = plugin.getConfig().getInt("statistics.save-interval", 600);
         autoSaveTask = plugin.getServer().getAsyncScheduler().runAtFixedRate(plugin,
@@ -128,7 +659,25 @@ public class StatisticsManager {
         if (autoSaveTask != null) {
             autoSaveTask.cancel();
         }
-        saveStats();
+        if (enabled && !storeReady.isDone()) {
+            // 启动后很快关服时，等待存储后端加载完成后再写入最终数据
+            try {
+                storeReady.get(30, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                plugin.getLogger().severe("统计数据仍在加载，本次运行的统计变化未能保存");
+            }
+        }
+        // 等待可能仍在进行的自动保存结束，再写入最终数据
+        shuttingDown = true;
+        saveStatsBlocking();
+
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                plugin.getLogger().warning(String.format("关闭统计存储时发生错误: %s", e.getMessage()));
+            }
+        }
     }
 
     public void showStats(Player player) {
@@ -136,57 +685,182 @@ public class StatisticsManager {
             plugin.getMessages().send(player, "stats-disabled");
             return;
         }
+        if (!isReady()) {
+            plugin.getMessages().send(player, "stats-loading");
+            return;
+        }
 
-        PlayerStats playerStats = getPlayerStats(player);
-        plugin.getMessages().send(player, "stats-self",
-                "peek_count", String.valueOf(playerStats.getPeekCount()),
-                "peeked_count", String.valueOf(playerStats.getPeekedCount()),
-                "peek_duration", String.valueOf(playerStats.getTotalDuration() / 60));
+        getPlayerStatsAsync(player.getUniqueId()).whenComplete((playerStats, ex) -> {
+            if (ex != null) {
+                plugin.getMessages().send(player, "command-error");
+                return;
+            }
+            plugin.getMessages().send(player, "stats-self",
+                    "peek_count", String.valueOf(playerStats.getPeekCount()),
+                    "peeked_count", String.valueOf(playerStats.getPeekedCount()),
+                    "peek_duration", String.valueOf(playerStats.getTotalDuration() / 60));
+
+            UUID uuid = player.getUniqueId();
+            plugin.getMessages().send(player, "stats-self-recent",
+                    "peek_count_24h", String.valueOf(getRecent(uuid, StatsMetric.PEEK_COUNT, HOURS_24H)),
+                    "peeked_count_24h", String.valueOf(getRecent(uuid, StatsMetric.PEEKED_COUNT, HOURS_24H)),
+                    "peek_duration_24h", String.valueOf(getRecent(uuid, StatsMetric.TOTAL_DURATION, HOURS_24H) / 60),
+                    "peek_count_7d", String.valueOf(getRecent(uuid, StatsMetric.PEEK_COUNT, HOURS_7D)),
+                    "peeked_count_7d", String.valueOf(getRecent(uuid, StatsMetric.PEEKED_COUNT, HOURS_7D)),
+                    "peek_duration_7d", String.valueOf(getRecent(uuid, StatsMetric.TOTAL_DURATION, HOURS_7D) / 60));
+
+            // 关系查询需要解析离线玩家名，放到异步线程
+            plugin.getServer().getAsyncScheduler().runNow(plugin, task -> showRelations(player));
+        });
     }
 
-    public static class PlayerStats {
+    private void showRelations(Player player) {
+        List<PeekGraph.PairCount> targets = getTopTargets(player.getUniqueId(), 1);
+        if (!targets.isEmpty()) {
+            plugin.getMessages().send(player, "stats-target-record",
+                    "most_peeked_player", describe(targets.get(0)));
+        }
+        List<PeekGraph.PairCount> watchers = getTopWatchers(player.getUniqueId(), 1);
+        if (!watchers.isEmpty()) {
+            plugin.getMessages().send(player, "stats-watcher-record",
+                    "most_watching_player", describe(watchers.get(0)));
+        }
+    }
 
-        // 使用原子类型：观察者与被观察者的统计可能在不同区域线程并发更新，
-        // 同时异步保存线程会读取，普通 int/long 的 ++/+= 会丢失更新或读到撕裂值
-        private final AtomicInteger peekCount = new AtomicInteger();
-        private final AtomicInteger peekedCount = new AtomicInteger();
-        private final AtomicLong totalDuration = new AtomicLong();
+    private String describe(PeekGraph.PairCount pair) {
+        String name = plugin.getServer().getOfflinePlayer(pair.uuid()).getName();
+        return String.format("%s (%d)", name != null ? name : pair.uuid().toString(), pair.count());
+    }
 
-        public void incrementPeekCount() {
-            peekCount.incrementAndGet();
+    /**
+     * 在异步线程把全部统计导出到 exports 目录，并向玩家报告进度
+     */
+    public void exportStats(Player player, StatsExporter.Format format) {
+        if (!enabled) {
+            plugin.getMessages().send(player, "stats-disabled");
+            return;
+        }
+        if (!isReady()) {
+            plugin.getMessages().send(player, "stats-loading");
+            return;
         }
+        if (!exporting.compareAndSet(false, true)) {
+            plugin.getMessages().send(player, "export-running");
+            return;
+        }
+
+        plugin.getMessages().send(player, "export-started", "format", format.getKey());
+        plugin.getServer().getAsyncScheduler().runNow(plugin, task -> {
+            try {
+                // 先写出内存中的变化，导出的是最新数据：等待正在进行的保存结束后再保存一次，
+                // 不能用 saveStats()，它在已有保存进行中时立即返回
+                saveStatsBlocking();
+
+                long startNanos = System.nanoTime();
+                long[] lastReport = {startNanos};
+                StatsExporter exporter = new StatsExporter(new File(plugin.getDataFolder(), "exports"), format);
+                StatsExporter.Result result = exporter.export(store, graph.snapshot(), rows -> {
+                    long now = System.nanoTime();
+                    if (now - lastReport[0] >= EXPORT_PROGRESS_INTERVAL_NANOS) {
+                        lastReport[0] = now;
+                        plugin.getMessages().send(player, "export-progress",
+                                "rows", String.valueOf(rows),
+                                "rate", formatRate(rows, now - startNanos));
+                    }
+                });
+
+                long elapsedNanos = System.nanoTime() - startNanos;
+                long rows = result.rows();
+                String names = result.files().stream().map(File::getName).collect(Collectors.joining(", "));
+                plugin.getLogger().info(String.format("统计数据已导出到 %s：%d 行，耗时 %.1f ms",
+                        names, rows, elapsedNanos / 1_000_000.0));
+                plugin.getMessages().send(player, "export-done",
+                        "files", names,
+                        "rows", String.valueOf(rows),
+                        "seconds", String.format("%.1f", elapsedNanos / 1_000_000_000.0),
+                        "rate", formatRate(rows, elapsedNanos));
+            } catch (IOException e) {
+                plugin.getLogger().warning(String.format("导出统计数据失败: %s", e.getMessage()));
+                plugin.getMessages().send(player, "export-failed");
+            } finally {
+                exporting.set(false);
+            }
+        });
+    }
 
-        public void incrementPeekedCount() {
-            peekedCount.incrementAndGet();
+    /**
+     * 显示指定指标的排行
+     */
+    public void showTop(Player player, StatsMetric metric, int limit) {
+        if (!enabled) {
+            plugin.getMessages().send(player, "stats-disabled");
+            return;
+        }
+        if (!isReady()) {
+            plugin.getMessages().send(player, "stats-loading");
+            return;
         }
 
-        public void addPeekDuration(long seconds) {
-            totalDuration.addAndGet(seconds);
+        Leaderboard.Entry[] ranking = getLeaderboard(metric).snapshot();
+        if (ranking.length == 0) {
+            plugin.getMessages().send(player, "stats-top-empty");
+            return;
         }
 
-        // Getters and setters
-        public int getPeekCount() {
-            return peekCount.get();
+        String metricName = plugin.getMessages().get("metric-" + metric.getKey(), metric.getKey());
+        plugin.getMessages().send(player, "stats-top-header", "metric", metricName);
+        for (int i = 0; i < Math.min(limit, ranking.length); i++) {
+            Leaderboard.Entry entry = ranking[i];
+            plugin.getMessages().send(player, "stats-top-entry",
+                    "rank", String.valueOf(i + 1),
+                    "player", entry.name() != null ? entry.name() : entry.uuid().toString(),
+                    "value", formatMetric(metric, entry.value()));
         }
+    }
+
+    /**
+     * 按指标格式化数值：时长以分钟显示，与 /peek stats 一致
+     */
+    public static String formatMetric(StatsMetric metric, long value) {
+        return String.valueOf(metric == StatsMetric.TOTAL_DURATION ? value / 60 : value);
+    }
+
+    private static String formatRate(long rows, long elapsedNanos) {
+        return String.valueOf(elapsedNanos > 0 ? rows * 1_000_000_000L / elapsedNanos : rows);
+    }
 
-        public void setPeekCount(int count) {
-            this.peekCount.set(count);
+    /**
+     * 玩家累计统计的只读视图：只记录玩家在 {@link StatsTable} 中的编号，每次调用时读取对应的列，不复制数据。
+     * 仅在玩家在线或仍在离线缓存中时有效；玩家被淘汰、编号被回收后各项返回 0，应随用随取，不要长期持有。
+     */
+    public static final class PlayerStats {
+
+        static final PlayerStats EMPTY = new PlayerStats(null, -1, null);
+
+        private final StatsTable table;
+        private final int slot;
+        private final UUID uuid;
+
+        private PlayerStats(StatsTable table, int slot, UUID uuid) {
+            this.table = table;
+            this.slot = slot;
+            this.uuid = uuid;
         }
 
-        public int getPeekedCount() {
-            return peekedCount.get();
+        public int getPeekCount() {
+            return (int) read(StatsMetric.PEEK_COUNT);
         }
 
-        public void setPeekedCount(int count) {
-            this.peekedCount.set(count);
+        public int getPeekedCount() {
+            return (int) read(StatsMetric.PEEKED_COUNT);
         }
 
         public long getTotalDuration() {
-            return totalDuration.get();
+            return read(StatsMetric.TOTAL_DURATION);
         }
 
-        public void setTotalDuration(long duration) {
-            this.totalDuration.set(duration);
+        private long read(StatsMetric metric) {
+            return table != null && table.owns(slot, uuid) ? table.get(slot, metric) : 0L;
         }
     }
 }
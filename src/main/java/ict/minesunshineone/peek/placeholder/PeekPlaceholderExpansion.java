@@ -1,13 +1,21 @@
 package ict.minesunshineone.peek.placeholder;
 
+import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 
 import ict.minesunshineone.peek.PeekPlugin;
+import ict.minesunshineone.peek.manager.Leaderboard;
+import ict.minesunshineone.peek.manager.StatisticsManager;
 import ict.minesunshineone.peek.manager.StatisticsManager.PlayerStats;
+import ict.minesunshineone.peek.storage.StatsMetric;
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
 
 public class PeekPlaceholderExpansion extends PlaceholderExpansion {
 
+    private static final String TOP_PREFIX = "top_";
+    private static final String SUFFIX_24H = "_24h";
+    private static final String SUFFIX_7D = "_7d";
+
     private final PeekPlugin plugin;
 
     public PeekPlaceholderExpansion(PeekPlugin plugin) {
@@ -30,25 +38,33 @@ public class PeekPlaceholderExpansion extends PlaceholderExpansion {
     }
 
     @Override
-    public String onPlaceholderRequest(Player player, String identifier) {
+    public String onRequest(OfflinePlayer player, String identifier) {
         if (player == null || identifier == null) {
             return "";
         }
 
         try {
-            PlayerStats stats = plugin.getStatisticsManager().getPlayerStats(player);
+            if (identifier.startsWith(TOP_PREFIX)) {
+                return topValue(identifier.substring(TOP_PREFIX.length()));
+            }
+            if (identifier.endsWith(SUFFIX_24H)) {
+                return recentValue(player, identifier.substring(0, identifier.length() - SUFFIX_24H.length()),
+                        StatisticsManager.HOURS_24H);
+            }
+            if (identifier.endsWith(SUFFIX_7D)) {
+                return recentValue(player, identifier.substring(0, identifier.length() - SUFFIX_7D.length()),
+                        StatisticsManager.HOURS_7D);
+            }
 
             return switch (identifier) {
-                case "peek_count" ->
-                    String.valueOf(stats.getPeekCount());
-                case "peeked_count" ->
-                    String.valueOf(stats.getPeekedCount());
-                case "total_duration" ->
-                    String.valueOf(stats.getTotalDuration());
+                case "peek_count", "peeked_count", "total_duration" ->
+                    statValue(player, identifier);
                 case "is_peeking" ->
                     String.valueOf(plugin.getStateHandler().getActivePeeks().containsKey(player.getUniqueId()));
-                case "is_private" ->
-                    String.valueOf(plugin.getPrivacyManager().isPrivateMode(player));
+                case "is_private" -> {
+                    Player online = player.getPlayer();
+                    yield String.valueOf(online != null && plugin.getPrivacyManager().isPrivateMode(online));
+                }
                 default ->
                     null;
             };
@@ -57,4 +73,74 @@ public class PeekPlaceholderExpansion extends PlaceholderExpansion {
             return "";
         }
     }
+
+    /**
+     * 最近时间窗口内的统计：peek_count_24h、peeked_count_7d、total_duration_24h 等
+     */
+    private String recentValue(OfflinePlayer player, String metricKey, int hours) {
+        StatsMetric metric = StatsMetric.fromKey(metricKey);
+        if (metric == null) {
+            return null;
+        }
+        return String.valueOf(plugin.getStatisticsManager().getRecent(player.getUniqueId(), metric, hours));
+    }
+
+    /**
+     * 解析排行变量：top_&lt;名次&gt;_&lt;name|value&gt;（默认观察次数排行）
+     * 或 top_&lt;指标&gt;_&lt;名次&gt;_&lt;name|value&gt;，直接读取排行快照，不做排序
+     */
+    private String topValue(String params) {
+        int fieldSeparator = params.lastIndexOf('_');
+        if (fieldSeparator < 0) {
+            return null;
+        }
+        String field = params.substring(fieldSeparator + 1);
+        String rest = params.substring(0, fieldSeparator);
+
+        int rankSeparator = rest.lastIndexOf('_');
+        StatsMetric metric = StatsMetric.PEEK_COUNT;
+        String rankText = rest;
+        if (rankSeparator >= 0) {
+            metric = StatsMetric.fromKey(rest.substring(0, rankSeparator));
+            rankText = rest.substring(rankSeparator + 1);
+        }
+        if (metric == null) {
+            return null;
+        }
+
+        int rank;
+        try {
+            rank = Integer.parseInt(rankText);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        Leaderboard.Entry entry = plugin.getStatisticsManager().getLeaderboard(metric).get(rank);
+        return switch (field) {
+            case "name" ->
+                entry == null ? "" : (entry.name() != null ? entry.name() : entry.uuid().toString());
+            case "value" ->
+                entry == null ? "0" : String.valueOf(entry.value());
+            default ->
+                null;
+        };
+    }
+
+    /**
+     * 读取统计变量；数据尚未加载时在后台加载并暂时返回“加载中”
+     */
+    private String statValue(OfflinePlayer player, String identifier) {
+        PlayerStats stats = plugin.getStatisticsManager().getCachedPlayerStats(player.getUniqueId());
+        if (stats == null) {
+            return plugin.getMessages().get("placeholder-loading", "...");
+        }
+        return switch (identifier) {
+            case "peek_count" ->
+                String.valueOf(stats.getPeekCount());
+            case "peeked_count" ->
+                String.valueOf(stats.getPeekedCount());
+            default ->
+                String.valueOf(stats.getTotalDuration());
+        };
+    }
 }
@@ -0,0 +1,249 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Registry;
+import org.bukkit.World;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.potion.PotionEffect;
+import org.bukkit.potion.PotionEffectType;
+
+import ict.minesunshineone.peek.data.PeekData;
+
+/**
+ * PeekData 的二进制编解码器
+ * 首字节为格式版本号，其后按固定顺序写入各字段；直接读写调用方提供的 ByteBuffer，
+ * 不经过 ConfigurationSerializable 与反射。
+ *
+ * <p>首字节不是已知版本号时按旧版 YAML 文本解析，兼容从 states/&lt;uuid&gt;.yml 迁移来的记录。
+ */
+public final class PeekDataCodec {
+
+    public static final byte VERSION_1 = 1;
+
+    private static final GameMode[] GAME_MODES = GameMode.values();
+    private static final byte FLAG_AMBIENT = 1;
+    private static final byte FLAG_PARTICLES = 1 << 1;
+    private static final byte FLAG_ICON = 1 << 2;
+    // 小于该值的首字节保留给二进制版本号；YAML 文本不会以这些控制字符开头
+    private static final byte FIRST_TEXT_BYTE = 0x20;
+
+    private PeekDataCodec() {
+        // 工具类不允许实例化
+    }
+
+    /**
+     * 把 PeekData 编码写入缓冲区
+     *
+     * @throws java.nio.BufferOverflowException 缓冲区空间不足时抛出，调用方应扩容后重试
+     */
+    public static void encode(PeekData data, ByteBuffer out) {
+        out.put(VERSION_1);
+
+        Location location = data.getOriginalLocation();
+        World world = location.getWorld();
+        if (world != null) {
+            UUID worldId = world.getUID();
+            out.putLong(worldId.getMostSignificantBits());
+            out.putLong(worldId.getLeastSignificantBits());
+        } else {
+            out.putLong(0L);
+            out.putLong(0L);
+        }
+        out.putDouble(location.getX());
+        out.putDouble(location.getY());
+        out.putDouble(location.getZ());
+        out.putFloat(location.getYaw());
+        out.putFloat(location.getPitch());
+
+        out.put((byte) data.getOriginalGameMode().ordinal());
+        out.putLong(data.getTargetUUID().getMostSignificantBits());
+        out.putLong(data.getTargetUUID().getLeastSignificantBits());
+        out.putLong(data.getStartTime());
+        out.putDouble(data.getHealth());
+        out.putInt(data.getFoodLevel());
+        out.putFloat(data.getSaturation());
+
+        Collection<PotionEffect> effects = data.getPotionEffects();
+        out.putShort((short) effects.size());
+        for (PotionEffect effect : effects) {
+            // 命名空间键只包含 ASCII 字符，逐字符写入避免额外的字节数组
+            String key = effect.getType().getKey().asString();
+            out.putShort((short) key.length());
+            for (int i = 0; i < key.length(); i++) {
+                out.put((byte) key.charAt(i));
+            }
+            out.putInt(effect.getDuration());
+            out.putInt(effect.getAmplifier());
+            byte flags = 0;
+            if (effect.isAmbient()) {
+                flags |= FLAG_AMBIENT;
+            }
+            if (effect.hasParticles()) {
+                flags |= FLAG_PARTICLES;
+            }
+            if (effect.hasIcon()) {
+                flags |= FLAG_ICON;
+            }
+            out.put(flags);
+        }
+    }
+
+    /**
+     * 从缓冲区当前位置解码 PeekData，自动识别二进制与旧版 YAML 格式
+     *
+     * @param in     负载数据（position 到 limit）
+     * @param logger 用于报告无法解析的药水效果
+     */
+    public static PeekData decode(ByteBuffer in, Logger logger) throws IOException {
+        if (!in.hasRemaining()) {
+            throw new IOException("状态数据为空");
+        }
+
+        byte version = in.get(in.position());
+        if (version == VERSION_1) {
+            in.get();
+            return decodeV1(in, logger);
+        }
+        if ((version & 0xFF) >= FIRST_TEXT_BYTE || version == '\t' || version == '\n' || version == '\r') {
+            return decodeLegacyYaml(in, logger);
+        }
+        throw new IOException(String.format("不支持的状态数据版本: %d", version));
+    }
+
+    private static PeekData decodeV1(ByteBuffer in, Logger logger) throws IOException {
+        try {
+            long worldMost = in.getLong();
+            long worldLeast = in.getLong();
+            World world = worldMost == 0L && worldLeast == 0L ? null : Bukkit.getWorld(new UUID(worldMost, worldLeast));
+            // 世界未加载时保留 null，恢复流程会回退到重生点
+            Location location = new Location(world, in.getDouble(), in.getDouble(), in.getDouble(),
+                    in.getFloat(), in.getFloat());
+
+            int gameModeOrdinal = in.get();
+            if (gameModeOrdinal < 0 || gameModeOrdinal >= GAME_MODES.length) {
+                throw new IOException(String.format("无效的游戏模式: %d", gameModeOrdinal));
+            }
+            GameMode gameMode = GAME_MODES[gameModeOrdinal];
+            UUID targetUUID = new UUID(in.getLong(), in.getLong());
+            long startTime = in.getLong();
+            double health = in.getDouble();
+            int foodLevel = in.getInt();
+            float saturation = in.getFloat();
+
+            int effectCount = in.getShort();
+            List<PotionEffect> effects = new ArrayList<>(Math.max(0, effectCount));
+            for (int i = 0; i < effectCount; i++) {
+                String typeName = readAscii(in, in.getShort());
+                int duration = in.getInt();
+                int amplifier = in.getInt();
+                byte flags = in.get();
+
+                PotionEffectType type = resolvePotionEffectType(typeName);
+                if (type != null) {
+                    effects.add(new PotionEffect(type, duration, amplifier,
+                            (flags & FLAG_AMBIENT) != 0,
+                            (flags & FLAG_PARTICLES) != 0,
+                            (flags & FLAG_ICON) != 0));
+                } else {
+                    logger.warning(String.format("无法解析药水效果类型 \"%s\"，已跳过", typeName));
+                }
+            }
+
+            return new PeekData(location, gameMode, targetUUID, startTime, health, foodLevel, saturation, effects);
+        } catch (RuntimeException e) {
+            throw new IOException(String.format("状态数据已损坏: %s", e.getMessage()), e);
+        }
+    }
+
+    private static String readAscii(ByteBuffer in, int length) {
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.US_ASCII);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 解析旧版 YAML 格式的状态数据
+     */
+    private static PeekData decodeLegacyYaml(ByteBuffer in, Logger logger) throws IOException {
+        byte[] text = new byte[in.remaining()];
+        in.get(text);
+
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(new String(text, StandardCharsets.UTF_8));
+
+            Location location = (Location) config.get("location");
+            GameMode gameMode = GameMode.valueOf(config.getString("gamemode"));
+            UUID targetUUID = UUID.fromString(config.getString("target"));
+            long startTime = config.getLong("startTime");
+
+            // 加载新增状态数据
+            double health = config.getDouble("health", 20.0);
+            int foodLevel = config.getInt("food_level", 20);
+            float saturation = (float) config.getDouble("saturation", 5.0);
+
+            // 加载药水效果
+            List<PotionEffect> effects = new ArrayList<>();
+            List<Map<?, ?>> effectsList = config.getMapList("potion_effects");
+            for (Map<?, ?> effectMap : effectsList) {
+                String typeName = (String) effectMap.get("type");
+                PotionEffectType type = resolvePotionEffectType(typeName);
+                if (type != null) {
+                    effects.add(new PotionEffect(
+                            type,
+                            ((Number) effectMap.get("duration")).intValue(),
+                            ((Number) effectMap.get("amplifier")).intValue(),
+                            (Boolean) effectMap.get("ambient"),
+                            (Boolean) effectMap.get("particles"),
+                            (Boolean) effectMap.get("icon")
+                    ));
+                } else {
+                    logger.warning(String.format("无法解析药水效果类型 \"%s\"，已跳过", typeName));
+                }
+            }
+
+            return new PeekData(location, gameMode, targetUUID, startTime, health, foodLevel, saturation, effects);
+        } catch (InvalidConfigurationException | RuntimeException e) {
+            throw new IOException(String.format("旧版状态数据无法解析: %s", e.getMessage()), e);
+        }
+    }
+
+    /**
+     * 解析药水效果类型，优先使用命名空间键（minecraft:speed），
+     * 兼容旧状态文件中的大写枚举名（如 "SPEED"）。
+     */
+    @SuppressWarnings("deprecation")
+    private static PotionEffectType resolvePotionEffectType(String name) {
+        if (name == null) {
+            return null;
+        }
+        NamespacedKey key = NamespacedKey.fromString(name);
+        if (key != null) {
+            PotionEffectType type = Registry.EFFECT.get(key);
+            if (type != null) {
+                return type;
+            }
+        }
+        // 回退到旧的按名称查找，保证老状态文件可正常读取
+        return PotionEffectType.getByName(name);
+    }
+}
@@ -0,0 +1,127 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import ict.minesunshineone.peek.data.PeekGraph;
+
+/**
+ * 观察关系图的存档文件（stats-graph.dat）
+ *
+ * <p>格式：int 魔数 | byte 版本 | int 玩家数 | 每个玩家（long UUID 高位 | long UUID 低位）|
+ * int 关系数 | 每对关系（long 键 | int 次数）| int CRC32。键中的编号指向文件内的玩家表。
+ */
+public final class PeekGraphFile {
+
+    private static final int MAGIC = 0x504B4752; // "PKGR"
+    private static final byte VERSION_1 = 1;
+
+    private final File file;
+
+    public PeekGraphFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 把文件中的关系累加到图中；文件不存在时不做任何事
+     */
+    public void load(PeekGraph graph) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), crc);
+                DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("stats-graph.dat 文件头无效");
+            }
+            byte version = in.readByte();
+            if (version != VERSION_1) {
+                throw new IOException(String.format("不支持的 stats-graph.dat 版本: %d", version));
+            }
+
+            // 文件内编号 -> 当前图中的编号
+            int playerCount = in.readInt();
+            if (playerCount < 0) {
+                throw new IOException("stats-graph.dat 玩家数无效");
+            }
+            int[] remap = new int[playerCount];
+            for (int i = 0; i < playerCount; i++) {
+                remap[i] = graph.intern(new UUID(in.readLong(), in.readLong()));
+            }
+
+            int pairCount = in.readInt();
+            for (int i = 0; i < pairCount; i++) {
+                long key = in.readLong();
+                int count = in.readInt();
+                int peeker = (int) (key >>> 32);
+                int target = (int) key;
+                if (peeker < 0 || peeker >= playerCount || target < 0 || target >= playerCount) {
+                    throw new IOException(String.format("stats-graph.dat 第 %d 对关系的编号无效", i));
+                }
+                graph.add(remap[peeker], remap[target], count);
+            }
+
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("stats-graph.dat 校验失败");
+            }
+        }
+    }
+
+    /**
+     * 写入临时文件并 fsync 后原子替换
+     */
+    public void save(PeekGraph.Snapshot snapshot) throws IOException {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        CRC32 crc = new CRC32();
+
+        try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), crc);
+                DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION_1);
+
+            int playerCount = snapshot.playerCount();
+            out.writeInt(playerCount);
+            for (int i = 0; i < playerCount; i++) {
+                out.writeLong(snapshot.mostBits(i));
+                out.writeLong(snapshot.leastBits(i));
+            }
+
+            int pairCount = snapshot.pairCount();
+            out.writeInt(pairCount);
+            for (int i = 0; i < pairCount; i++) {
+                out.writeLong(((long) snapshot.peeker(i) << 32) | (snapshot.target(i) & 0xFFFFFFFFL));
+                out.writeInt(snapshot.count(i));
+            }
+
+            int checksum = (int) crc.getValue();
+            out.writeInt(checksum);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import ict.minesunshineone.peek.data.EndReason;
+import ict.minesunshineone.peek.data.SessionRecord;
+
+/**
+ * 会话历史日志：只追加、按记录数轮转、gzip 压缩
+ * 每个分段文件 history-&lt;时间&gt;.log.gz 以文件头开始，之后是定长记录；
+ * 每批写入后同步刷新压缩流，崩溃时最多丢失未刷新的记录，读取时忽略截断的尾部。
+ * 每次启动都开启新的分段，超出保留数量的最旧分段会被删除。
+ *
+ * <p>记录格式（45 字节）：long×2 观察者 | long×2 被观察者 | long 开始时间 | int 时长（秒）| byte 结束原因
+ */
+public class SessionHistoryLog implements Closeable {
+
+    public static final int RECORD_SIZE = 16 + 16 + 8 + 4 + 1;
+
+    private static final int MAGIC = 0x504B4853; // "PKHS"
+    private static final byte VERSION_1 = 1;
+    private static final String FILE_PREFIX = "history-";
+    private static final String FILE_SUFFIX = ".log.gz";
+
+    private final File directory;
+    private final Logger logger;
+    private final int rotateRecords;
+    private final int maxFiles;
+
+    private DataOutputStream out;
+    private int segmentRecords;
+
+    public SessionHistoryLog(File directory, Logger logger, int rotateRecords, int maxFiles) {
+        this.directory = directory;
+        this.logger = logger;
+        this.rotateRecords = Math.max(1, rotateRecords);
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    /**
+     * 追加一条记录，当前分段已满时先轮转；调用 {@link #flush()} 后记录才对读取者可见
+     */
+    public void append(SessionRecord record) throws IOException {
+        if (out == null || segmentRecords >= rotateRecords) {
+            rotate();
+        }
+        out.writeLong(record.peeker().getMostSignificantBits());
+        out.writeLong(record.peeker().getLeastSignificantBits());
+        out.writeLong(record.target().getMostSignificantBits());
+        out.writeLong(record.target().getLeastSignificantBits());
+        out.writeLong(record.startTime());
+        out.writeInt(record.durationSeconds());
+        out.writeByte(record.reason().getCode());
+        segmentRecords++;
+    }
+
+    /**
+     * 同步刷新压缩流，使已追加的记录可以被读取
+     */
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * 按时间从新到旧查找与玩家相关（观察者或被观察者）的最近 limit 条记录
+     * 逐个分段流式读取，内存占用只与 limit 有关。
+     */
+    public List<SessionRecord> findRecent(UUID player, int limit) throws IOException {
+        List<SessionRecord> result = new ArrayList<>(limit);
+        File[] segments = listSegments();
+        for (int i = segments.length - 1; i >= 0 && result.size() < limit; i--) {
+            Deque<SessionRecord> matches = new ArrayDeque<>();
+            scanSegment(segments[i], player, matches, limit - result.size());
+            // 分段内按时间顺序保存，倒序取出得到从新到旧
+            Iterator<SessionRecord> newestFirst = matches.descendingIterator();
+            while (newestFirst.hasNext()) {
+                result.add(newestFirst.next());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    // ==================== 私有方法 ====================
+
+    private void rotate() throws IOException {
+        close();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException(String.format("无法创建历史目录: %s", directory.getPath()));
+        }
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        File file = new File(directory, FILE_PREFIX + timestamp + FILE_SUFFIX);
+        for (int suffix = 1; file.exists(); suffix++) {
+            file = new File(directory, FILE_PREFIX + timestamp + "-" + suffix + FILE_SUFFIX);
+        }
+
+        FileOutputStream fileOut = new FileOutputStream(file);
+        // syncFlush：flush() 时输出完整的压缩块，读取者无需等待分段关闭
+        out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fileOut, 1 << 13, true), 1 << 13));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION_1);
+        segmentRecords = 0;
+
+        pruneOldSegments();
+    }
+
+    private void pruneOldSegments() {
+        File[] segments = listSegments();
+        for (int i = 0; i < segments.length - maxFiles; i++) {
+            if (!segments[i].delete()) {
+                logger.warning(String.format("无法删除过期的历史文件: %s", segments[i].getName()));
+            }
+        }
+    }
+
+    /**
+     * 按文件名（即创建时间）从旧到新排列的分段
+     */
+    private File[] listSegments() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return files;
+    }
+
+    private void scanSegment(File file, UUID player, Deque<SessionRecord> matches, int keep) throws IOException {
+        long most = player.getMostSignificantBits();
+        long least = player.getLeastSignificantBits();
+        byte[] buffer = new byte[RECORD_SIZE];
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)), 1 << 13), 1 << 13))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION_1) {
+                logger.warning(String.format("跳过无法识别的历史文件: %s", file.getName()));
+                return;
+            }
+
+            while (true) {
+                in.readFully(buffer);
+                ByteBuffer record = ByteBuffer.wrap(buffer);
+                long peekerMost = record.getLong();
+                long peekerLeast = record.getLong();
+                long targetMost = record.getLong();
+                long targetLeast = record.getLong();
+                boolean isPeeker = peekerMost == most && peekerLeast == least;
+                boolean isTarget = targetMost == most && targetLeast == least;
+                if (!isPeeker && !isTarget) {
+                    continue;
+                }
+
+                EndReason reason = EndReason.fromCode(buffer[RECORD_SIZE - 1]);
+                if (reason == null) {
+                    continue;
+                }
+                matches.addLast(new SessionRecord(new UUID(peekerMost, peekerLeast),
+                        new UUID(targetMost, targetLeast), record.getLong(), record.getInt(), reason));
+                if (matches.size() > keep) {
+                    matches.removeFirst();
+                }
+            }
+        } catch (EOFException | ZipException e) {
+            // 读到分段末尾，或正在写入/崩溃时截断的压缩流
+        }
+    }
+}
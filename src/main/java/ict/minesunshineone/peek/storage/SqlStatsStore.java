@@ -0,0 +1,221 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * 基于嵌入式 SQLite 数据库的统计存储
+ * 变化的记录在一个事务内批量 upsert；每个指标都有索引，排行与单人查询无需把全部玩家加载到内存。
+ * 使用服务端自带的 SQLite JDBC 驱动，数据库文件位于插件目录下。
+ */
+public class SqlStatsStore implements StatsStore {
+
+    private static final String DRIVER_CLASS = "org.sqlite.JDBC";
+    private static final String TABLE = "peek_stats";
+    private static final String COLUMNS = "uuid, peek_count, peeked_count, total_duration";
+    private static final String UPSERT = "INSERT INTO " + TABLE + " (" + COLUMNS + ") VALUES (?, ?, ?, ?) "
+            + "ON CONFLICT(uuid) DO UPDATE SET peek_count = excluded.peek_count, "
+            + "peeked_count = excluded.peeked_count, total_duration = excluded.total_duration";
+    private static final int BATCH_SIZE = 500;
+
+    private final Logger logger;
+    private final File file;
+    private Connection connection;
+
+    public SqlStatsStore(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        try {
+            Class.forName(DRIVER_CLASS);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("服务端未提供 SQLite JDBC 驱动", e);
+        }
+
+        try {
+            this.connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                // WAL 模式下读取不阻塞写入，synchronous=NORMAL 在 WAL 下崩溃时不会损坏数据库
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                        + "uuid CHAR(36) PRIMARY KEY NOT NULL, "
+                        + "peek_count INTEGER NOT NULL DEFAULT 0, "
+                        + "peeked_count INTEGER NOT NULL DEFAULT 0, "
+                        + "total_duration INTEGER NOT NULL DEFAULT 0)");
+                for (StatsMetric metric : StatsMetric.values()) {
+                    statement.execute(String.format("CREATE INDEX IF NOT EXISTS idx_%s_%s ON %s (%s DESC)",
+                            TABLE, metric.getKey(), TABLE, metric.getKey()));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("无法打开统计数据库: %s", e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public synchronized void loadAll(Consumer<StatsRecord> consumer) throws IOException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT " + COLUMNS + " FROM " + TABLE)) {
+            while (resultSet.next()) {
+                StatsRecord record = readRecord(resultSet);
+                if (record != null) {
+                    consumer.accept(record);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("无法读取统计数据: %s", e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public void loadPaged(int pageSize, PageConsumer consumer) throws IOException {
+        // 按主键翻页：每页从上一页最后一个 UUID 之后开始，不依赖 OFFSET，也不在页之间持有连接
+        String after = "";
+        while (true) {
+            List<StatsRecord> page = new ArrayList<>(pageSize);
+            String last = null;
+            synchronized (this) {
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "SELECT " + COLUMNS + " FROM " + TABLE + " WHERE uuid > ? ORDER BY uuid LIMIT ?")) {
+                    statement.setString(1, after);
+                    statement.setInt(2, pageSize);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            last = resultSet.getString(1);
+                            StatsRecord record = readRecord(resultSet);
+                            if (record != null) {
+                                page.add(record);
+                            }
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new IOException(String.format("无法读取统计数据: %s", e.getMessage()), e);
+                }
+            }
+            if (last == null) {
+                return;
+            }
+            consumer.accept(page);
+            after = last;
+        }
+    }
+
+    @Override
+    public synchronized StatsRecord load(UUID uuid) throws IOException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT " + COLUMNS + " FROM " + TABLE + " WHERE uuid = ?")) {
+            statement.setString(1, uuid.toString());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? readRecord(resultSet) : null;
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("无法读取 %s 的统计数据: %s", uuid, e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public synchronized void save(Collection<StatsRecord> changed) throws IOException {
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(UPSERT)) {
+                int pending = 0;
+                for (StatsRecord record : changed) {
+                    statement.setString(1, record.uuid().toString());
+                    statement.setInt(2, record.peekCount());
+                    statement.setInt(3, record.peekedCount());
+                    statement.setLong(4, record.totalDuration());
+                    statement.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        statement.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    statement.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("无法保存统计数据: %s", e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public synchronized List<StatsRecord> top(StatsMetric metric, int limit) throws IOException {
+        List<StatsRecord> result = new ArrayList<>(limit);
+        // 列名来自枚举常量而非用户输入，可以直接拼接
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT " + COLUMNS + " FROM " + TABLE + " ORDER BY " + metric.getKey() + " DESC LIMIT ?")) {
+            statement.setInt(1, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    StatsRecord record = readRecord(resultSet);
+                    if (record != null) {
+                        result.add(record);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("无法查询统计排行: %s", e.getMessage()), e);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int size() throws IOException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + TABLE)) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new IOException(String.format("无法读取统计数据: %s", e.getMessage()), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException(String.format("关闭统计数据库时发生错误: %s", e.getMessage()), e);
+        }
+    }
+
+    private StatsRecord readRecord(ResultSet resultSet) throws SQLException {
+        String uuidStr = resultSet.getString(1);
+        try {
+            return new StatsRecord(UUID.fromString(uuidStr), resultSet.getInt(2), resultSet.getInt(3),
+                    resultSet.getLong(4));
+        } catch (IllegalArgumentException e) {
+            logger.warning(String.format("无效的 UUID: %s", uuidStr));
+            return null;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Peek 会话状态的追加写日志
+ * 开始观察时追加一条 START 记录，恢复完成后追加一条 END 记录，
+ * 取代每个会话创建并删除一个 states/&lt;uuid&gt;.yml 文件的做法。
+ * 启动时回放日志重建未恢复的会话；失效记录累积到阈值后自动压缩。
+ *
+ * <p>记录格式：int 长度 | byte 类型 | long UUID 高位 | long UUID 低位 | 负载 | int CRC32，
+ * 长度与 CRC 覆盖从类型到负载的部分。回放遇到损坏的记录时向后寻找下一条完整的记录并跳过损坏部分，
+ * 其他玩家的记录不受影响；只有损坏一直延续到文件末尾（写入中断留下的尾部）时才截掉该尾部。
+ */
+public class StateJournal implements Closeable {
+
+    private static final byte TYPE_START = 1;
+    private static final byte TYPE_END = 2;
+    private static final int LENGTH_SIZE = 4;
+    private static final int CRC_SIZE = 4;
+    private static final int BODY_HEADER_SIZE = 1 + 16;
+    private static final int MAX_BODY_SIZE = 1 << 20;
+    private static final int INITIAL_SCRATCH_SIZE = 512;
+
+    private final File file;
+    private final Logger logger;
+    private final int compactThreshold;
+    // 仍未恢复的会话：UUID -> START 记录在文件中的偏移
+    private final Map<UUID, Long> liveOffsets = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+
+    // 写入记录时复用的缓冲区，负载直接编码到其中，空间不足时按需扩容
+    private ByteBuffer scratch = ByteBuffer.allocateDirect(INITIAL_SCRATCH_SIZE);
+    private FileChannel channel;
+    private long position;
+    private int deadRecords;
+
+    public StateJournal(File file, Logger logger, int compactThreshold) throws IOException {
+        this.file = file;
+        this.logger = logger;
+        this.compactThreshold = Math.max(1, compactThreshold);
+        this.channel = open(file);
+        replay();
+        if (deadRecords > 0) {
+            compact();
+        }
+    }
+
+    /**
+     * 追加一条 START 记录并强制落盘，保证崩溃后仍能恢复该会话
+     */
+    public synchronized void appendStart(UUID uuid, PayloadWriter payload) throws IOException {
+        long offset = position;
+        writeRecord(TYPE_START, uuid, payload);
+        channel.force(false);
+        if (liveOffsets.put(uuid, offset) != null) {
+            deadRecords++;
+        }
+        maybeCompact();
+    }
+
+    /**
+     * 追加一条 END 记录，标记该会话已恢复
+     * END 丢失时最坏情况只是重连后重复恢复一次，因此不强制落盘
+     */
+    public synchronized void appendEnd(UUID uuid) throws IOException {
+        if (!liveOffsets.containsKey(uuid)) {
+            return;
+        }
+        writeRecord(TYPE_END, uuid, null);
+        liveOffsets.remove(uuid);
+        deadRecords += 2;
+        maybeCompact();
+    }
+
+    /**
+     * 读取并解码指定玩家仍未恢复的会话负载
+     *
+     * @return 解码结果，不存在时返回 null
+     */
+    public synchronized <T> T read(UUID uuid, PayloadReader<T> reader) throws IOException {
+        Long offset = liveOffsets.get(uuid);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer body = readBody(channel, offset);
+        if (body == null) {
+            throw new IOException(String.format("状态日志中 %s 的记录已损坏", uuid));
+        }
+        body.position(BODY_HEADER_SIZE);
+        return reader.read(body);
+    }
+
+    public synchronized boolean contains(UUID uuid) {
+        return liveOffsets.containsKey(uuid);
+    }
+
+    public synchronized Set<UUID> liveIds() {
+        return new HashSet<>(liveOffsets.keySet());
+    }
+
+    /**
+     * 压缩日志：只保留仍未恢复的会话记录，写入临时文件后原子替换
+     */
+    public synchronized void compact() throws IOException {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        Map<UUID, Long> newOffsets = new HashMap<>();
+        try (FileChannel out = FileChannel.open(tmpFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long outPosition = 0;
+            for (Map.Entry<UUID, Long> entry : liveOffsets.entrySet()) {
+                ByteBuffer body = readBody(channel, entry.getValue());
+                if (body == null) {
+                    logger.warning(String.format("压缩状态日志时跳过损坏的记录: %s", entry.getKey()));
+                    continue;
+                }
+                ByteBuffer record = frame(body);
+                newOffsets.put(entry.getKey(), outPosition);
+                while (record.hasRemaining()) {
+                    outPosition += out.write(record, outPosition);
+                }
+            }
+            out.force(true);
+        }
+
+        // 部分平台无法替换仍被打开的文件，替换前关闭；替换失败时重新打开原文件，日志继续可用
+        channel.close();
+        try {
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            channel = open(file);
+        }
+        position = channel.size();
+        liveOffsets.clear();
+        liveOffsets.putAll(newOffsets);
+        deadRecords = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        if (deadRecords > 0) {
+            compact();
+        }
+        channel.force(true);
+        channel.close();
+    }
+
+    // ==================== 私有方法 ====================
+
+    /**
+     * 失效记录达到阈值时压缩；压缩失败不影响刚写入的记录，只记录警告，等下一次写入再试
+     */
+    private void maybeCompact() {
+        if (deadRecords < compactThreshold) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            logger.warning(String.format("压缩状态日志失败: %s", e.getMessage()));
+        }
+    }
+
+    private void writeRecord(byte type, UUID uuid, PayloadWriter payload) throws IOException {
+        while (true) {
+            try {
+                encodeRecord(type, uuid, payload);
+                break;
+            } catch (BufferOverflowException e) {
+                if (scratch.capacity() >= MAX_BODY_SIZE) {
+                    throw new IOException("状态记录超过最大长度");
+                }
+                scratch = ByteBuffer.allocateDirect(Math.min(scratch.capacity() * 2, MAX_BODY_SIZE + LENGTH_SIZE + CRC_SIZE));
+            }
+        }
+
+        long written = 0;
+        while (scratch.hasRemaining()) {
+            written += channel.write(scratch, position + written);
+        }
+        position += written;
+    }
+
+    /**
+     * 在复用缓冲区中就地编码一条完整记录，完成后缓冲区处于可写出状态
+     */
+    private void encodeRecord(byte type, UUID uuid, PayloadWriter payload) {
+        scratch.clear();
+        scratch.position(LENGTH_SIZE);
+        scratch.put(type);
+        scratch.putLong(uuid.getMostSignificantBits());
+        scratch.putLong(uuid.getLeastSignificantBits());
+        if (payload != null) {
+            payload.write(scratch);
+        }
+        int bodyEnd = scratch.position();
+        int bodySize = bodyEnd - LENGTH_SIZE;
+        if (bodySize > MAX_BODY_SIZE) {
+            throw new BufferOverflowException();
+        }
+
+        crc.reset();
+        scratch.limit(bodyEnd).position(LENGTH_SIZE);
+        crc.update(scratch);
+        scratch.limit(scratch.capacity()).position(bodyEnd);
+        scratch.putInt((int) crc.getValue());
+        scratch.putInt(0, bodySize);
+        scratch.flip();
+    }
+
+    /**
+     * 为记录主体加上长度前缀与 CRC 校验（用于压缩时复制已有记录）
+     */
+    private ByteBuffer frame(ByteBuffer body) {
+        int bodySize = body.remaining();
+        crc.reset();
+        crc.update(body.duplicate());
+
+        ByteBuffer record = ByteBuffer.allocate(LENGTH_SIZE + bodySize + CRC_SIZE);
+        record.putInt(bodySize);
+        record.put(body);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    /**
+     * 读取并校验指定偏移处的记录主体
+     *
+     * @return 记录主体（类型 + UUID + 负载），记录截断或损坏时返回 null
+     */
+    private ByteBuffer readBody(FileChannel source, long offset) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(LENGTH_SIZE);
+        if (!readFully(source, lengthBuffer, offset)) {
+            return null;
+        }
+        int bodySize = lengthBuffer.getInt(0);
+        if (bodySize < BODY_HEADER_SIZE || bodySize > MAX_BODY_SIZE) {
+            return null;
+        }
+
+        ByteBuffer rest = ByteBuffer.allocate(bodySize + CRC_SIZE);
+        if (!readFully(source, rest, offset + LENGTH_SIZE)) {
+            return null;
+        }
+        int expected = rest.getInt(bodySize);
+        rest.limit(bodySize);
+
+        CRC32 check = new CRC32();
+        check.update(rest.duplicate());
+        if ((int) check.getValue() != expected) {
+            return null;
+        }
+        return rest;
+    }
+
+    private boolean readFully(FileChannel source, ByteBuffer buffer, long offset) throws IOException {
+        long readPosition = offset;
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, readPosition);
+            if (read < 0) {
+                return false;
+            }
+            readPosition += read;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * 回放日志，重建未恢复会话的偏移表。
+     * 中间的损坏记录被跳过（计为失效记录，由随后的压缩清除）；损坏延续到文件末尾时截掉该尾部
+     */
+    private void replay() throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        while (offset < size) {
+            ByteBuffer body = readBody(channel, offset);
+            if (body == null) {
+                long next = findNextRecord(offset, size);
+                if (next < 0) {
+                    logger.warning(String.format("状态日志在偏移 %d 处存在不完整的记录，已丢弃其后的 %d 字节",
+                            offset, size - offset));
+                    channel.truncate(offset);
+                    break;
+                }
+                logger.warning(String.format("状态日志在偏移 %d 处存在损坏的记录，已跳过 %d 字节；"
+                        + "其中的会话状态（如有）无法恢复", offset, next - offset));
+                deadRecords++;
+                offset = next;
+                continue;
+            }
+
+            byte type = body.get(0);
+            UUID uuid = new UUID(body.getLong(1), body.getLong(9));
+            if (type == TYPE_START) {
+                if (liveOffsets.put(uuid, offset) != null) {
+                    deadRecords++;
+                }
+            } else if (type == TYPE_END) {
+                // 只有与 START 配对的 END 才让两条记录同时失效
+                deadRecords += liveOffsets.remove(uuid) != null ? 2 : 1;
+            } else {
+                deadRecords++;
+            }
+            offset += LENGTH_SIZE + body.limit() + CRC_SIZE;
+        }
+        position = offset;
+    }
+
+    /**
+     * 从损坏记录处向后寻找下一条完整的记录：先按长度前缀跳过，长度本身不可信时逐字节扫描
+     *
+     * @return 下一条完整记录的偏移，直到文件末尾都没有时返回 -1
+     */
+    private long findNextRecord(long damaged, long size) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(LENGTH_SIZE);
+        if (readFully(channel, lengthBuffer, damaged)) {
+            int bodySize = lengthBuffer.getInt(0);
+            if (bodySize >= BODY_HEADER_SIZE && bodySize <= MAX_BODY_SIZE) {
+                long skipped = damaged + LENGTH_SIZE + bodySize + CRC_SIZE;
+                if (skipped < size && readBody(channel, skipped) != null) {
+                    return skipped;
+                }
+            }
+        }
+
+        for (long candidate = damaged + 1; candidate + LENGTH_SIZE + BODY_HEADER_SIZE + CRC_SIZE <= size; candidate++) {
+            if (readBody(channel, candidate) != null) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 把负载直接写入记录缓冲区
+     */
+    @FunctionalInterface
+    public interface PayloadWriter {
+
+        void write(ByteBuffer out);
+    }
+
+    /**
+     * 从记录缓冲区解码负载，缓冲区仅在调用期间有效
+     */
+    @FunctionalInterface
+    public interface PayloadReader<T> {
+
+        T read(ByteBuffer payload) throws IOException;
+    }
+}
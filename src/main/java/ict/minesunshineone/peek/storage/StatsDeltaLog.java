@@ -0,0 +1,148 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 统计数据的增量日志
+ * 每次自动保存只把变化过的玩家以定长记录追加到日志末尾，记录保存的是绝对值，
+ * 回放时后写入的记录覆盖先写入的记录；写入完整快照后清空日志。
+ *
+ * <p>记录格式（36 字节）：long UUID 高位 | long UUID 低位 | int 观察次数 | int 被观察次数 | long 总时长 | int CRC32
+ */
+public class StatsDeltaLog implements Closeable {
+
+    public static final int RECORD_SIZE = 16 + 4 + 4 + 8 + 4;
+    private static final int DATA_SIZE = RECORD_SIZE - 4;
+    private static final int BATCH_RECORDS = 256;
+
+    private final Logger logger;
+    private final FileChannel channel;
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(RECORD_SIZE * BATCH_RECORDS);
+    private final CRC32 crc = new CRC32();
+    private long position;
+
+    public StatsDeltaLog(File file, Logger logger) throws IOException {
+        this.logger = logger;
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.position = channel.size();
+    }
+
+    /**
+     * 按写入顺序回放日志；截断或校验失败的尾部会被丢弃
+     */
+    public synchronized void replay(RecordConsumer consumer) throws IOException {
+        long size = channel.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        long offset = 0;
+        while (offset + RECORD_SIZE <= size) {
+            record.clear();
+            while (record.hasRemaining()) {
+                if (channel.read(record, offset + record.position()) < 0) {
+                    break;
+                }
+            }
+            if (record.hasRemaining()) {
+                break;
+            }
+
+            crc.reset();
+            record.position(0).limit(DATA_SIZE);
+            crc.update(record);
+            record.limit(RECORD_SIZE);
+            if ((int) crc.getValue() != record.getInt(DATA_SIZE)) {
+                break;
+            }
+
+            consumer.accept(new UUID(record.getLong(0), record.getLong(8)),
+                    record.getInt(16), record.getInt(20), record.getLong(24));
+            offset += RECORD_SIZE;
+        }
+
+        if (offset < size) {
+            logger.warning(String.format("统计增量日志在偏移 %d 处存在不完整的记录，已丢弃其后的 %d 字节",
+                    offset, size - offset));
+            channel.truncate(offset);
+        }
+        position = offset;
+    }
+
+    /**
+     * 追加一条记录到批量缓冲区，缓冲区满时自动写出；调用 {@link #flush()} 后才保证落盘
+     */
+    public synchronized void append(UUID uuid, int peekCount, int peekedCount, long totalDuration) throws IOException {
+        if (batch.remaining() < RECORD_SIZE) {
+            writeBatch();
+        }
+
+        int start = batch.position();
+        batch.putLong(uuid.getMostSignificantBits());
+        batch.putLong(uuid.getLeastSignificantBits());
+        batch.putInt(peekCount);
+        batch.putInt(peekedCount);
+        batch.putLong(totalDuration);
+
+        crc.reset();
+        int end = batch.position();
+        batch.limit(end).position(start);
+        crc.update(batch);
+        batch.limit(batch.capacity()).position(end);
+        batch.putInt((int) crc.getValue());
+    }
+
+    /**
+     * 写出缓冲区中的记录并强制落盘
+     */
+    public synchronized void flush() throws IOException {
+        writeBatch();
+        channel.force(false);
+    }
+
+    /**
+     * 完整快照已写入后清空日志
+     */
+    public synchronized void reset() throws IOException {
+        batch.clear();
+        channel.truncate(0);
+        channel.force(false);
+        position = 0;
+    }
+
+    /**
+     * 日志中已写出的记录数
+     */
+    public synchronized long recordCount() {
+        return position / RECORD_SIZE;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        flush();
+        channel.close();
+    }
+
+    private void writeBatch() throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            position += channel.write(batch, position);
+        }
+        batch.clear();
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+
+        void accept(UUID uuid, int peekCount, int peekedCount, long totalDuration);
+    }
+}
@@ -0,0 +1,231 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+import ict.minesunshineone.peek.data.PeekGraph;
+
+/**
+ * 把统计数据逐条导出为 CSV 或 JSON 文件，供离线分析
+ * 记录从存储后端按页读取后直接写出，不在内存中汇总，写文件时不持有存储的锁；观察关系从关系图的视图逐条读取，
+ * 不复制。文件先写为 .part，完成后再改名，读取方不会拿到写了一半的文件。
+ *
+ * <p>CSV 导出两个文件：stats-&lt;时间&gt;.csv（每名玩家一行）与 pairs-&lt;时间&gt;.csv（每对观察关系一行）；
+ * JSON 导出一个文件，包含 players 与 pairs 两个数组。
+ */
+public final class StatsExporter {
+
+    // 每写出这么多行回调一次进度
+    private static final int PROGRESS_EVERY = 1024;
+    // 每次从存储读取的记录数
+    private static final int PAGE_SIZE = 1000;
+
+    private final File directory;
+    private final Format format;
+
+    public StatsExporter(File directory, Format format) {
+        this.directory = directory;
+        this.format = format;
+    }
+
+    /**
+     * 导出全部统计与观察关系
+     *
+     * @param store    统计存储，只在读取每一页时持有其锁
+     * @param pairs    观察关系的视图，没有时为 null
+     * @param progress 进度回调，参数为已写出的行数
+     * @return 写出的文件与总行数
+     */
+    public Result export(StatsStore store, PeekGraph.Snapshot pairs, LongConsumer progress) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException(String.format("无法创建导出目录: %s", directory.getPath()));
+        }
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        long[] rows = {0};
+        List<File> files = new ArrayList<>(2);
+
+        if (format == Format.CSV) {
+            files.add(write("stats-" + timestamp + ".csv", out -> {
+                out.write("uuid,peek_count,peeked_count,total_duration\n");
+                streamRecords(store, record -> {
+                    out.write(record.uuid().toString());
+                    out.write(',');
+                    out.write(Integer.toString(record.peekCount()));
+                    out.write(',');
+                    out.write(Integer.toString(record.peekedCount()));
+                    out.write(',');
+                    out.write(Long.toString(record.totalDuration()));
+                    out.write('\n');
+                    tick(rows, progress);
+                });
+            }));
+            if (pairs != null) {
+                files.add(write("pairs-" + timestamp + ".csv", out -> {
+                    out.write("peeker,target,count\n");
+                    forEachPair(pairs, (peeker, target, count) -> {
+                        out.write(peeker.toString());
+                        out.write(',');
+                        out.write(target.toString());
+                        out.write(',');
+                        out.write(Integer.toString(count));
+                        out.write('\n');
+                        tick(rows, progress);
+                    });
+                }));
+            }
+        } else {
+            files.add(write("stats-" + timestamp + ".json", out -> {
+                out.write("{\"players\":[");
+                boolean[] first = {true};
+                streamRecords(store, record -> {
+                    out.write(first[0] ? "\n" : ",\n");
+                    first[0] = false;
+                    out.write("{\"uuid\":\"");
+                    out.write(record.uuid().toString());
+                    out.write("\",\"peek_count\":");
+                    out.write(Integer.toString(record.peekCount()));
+                    out.write(",\"peeked_count\":");
+                    out.write(Integer.toString(record.peekedCount()));
+                    out.write(",\"total_duration\":");
+                    out.write(Long.toString(record.totalDuration()));
+                    out.write('}');
+                    tick(rows, progress);
+                });
+                out.write("\n],\"pairs\":[");
+                first[0] = true;
+                if (pairs != null) {
+                    forEachPair(pairs, (peeker, target, count) -> {
+                        out.write(first[0] ? "\n" : ",\n");
+                        first[0] = false;
+                        out.write("{\"peeker\":\"");
+                        out.write(peeker.toString());
+                        out.write("\",\"target\":\"");
+                        out.write(target.toString());
+                        out.write("\",\"count\":");
+                        out.write(Integer.toString(count));
+                        out.write('}');
+                        tick(rows, progress);
+                    });
+                }
+                out.write("\n]}\n");
+            }));
+        }
+
+        progress.accept(rows[0]);
+        return new Result(files, rows[0]);
+    }
+
+    // ==================== 私有方法 ====================
+
+    private File write(String name, Body body) throws IOException {
+        File file = new File(directory, name);
+        File partFile = new File(directory, name + ".part");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(partFile), StandardCharsets.UTF_8), 1 << 16)) {
+            body.write(out);
+        } catch (IOException | RuntimeException e) {
+            partFile.delete();
+            throw e;
+        }
+        Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    private static void streamRecords(StatsStore store, RecordWriter writer) throws IOException {
+        store.loadPaged(PAGE_SIZE, page -> {
+            for (StatsRecord record : page) {
+                writer.write(record);
+            }
+        });
+    }
+
+    private static void forEachPair(PeekGraph.Snapshot pairs, PairWriter writer) throws IOException {
+        int pairCount = pairs.pairCount();
+        for (int i = 0; i < pairCount; i++) {
+            int count = pairs.count(i);
+            // 刚登记、尚未累加的关系
+            if (count > 0) {
+                writer.write(pairs.uuid(pairs.peeker(i)), pairs.uuid(pairs.target(i)), count);
+            }
+        }
+    }
+
+    private static void tick(long[] rows, LongConsumer progress) {
+        if (++rows[0] % PROGRESS_EVERY == 0) {
+            progress.accept(rows[0]);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Body {
+
+        void write(Writer out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+
+        void write(StatsRecord record) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface PairWriter {
+
+        void write(UUID peeker, UUID target, int count) throws IOException;
+    }
+
+    /**
+     * 导出结果
+     *
+     * @param files 写出的文件
+     * @param rows  写出的数据行数（不含表头）
+     */
+    public record Result(List<File> files, long rows) {
+    }
+
+    /**
+     * 导出格式
+     */
+    public enum Format {
+        CSV("csv"),
+        JSON("json");
+
+        private final String key;
+
+        Format(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 按命令参数查找格式
+         *
+         * @return 对应的格式，不存在时返回 null
+         */
+        public static Format fromKey(String key) {
+            for (Format format : values()) {
+                if (format.key.equalsIgnoreCase(key)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ict.minesunshineone.peek.storage;
+
+/**
+ * 可用于排行的统计指标
+ */
+public enum StatsMetric {
+
+    PEEK_COUNT("peek_count"),
+    PEEKED_COUNT("peeked_count"),
+    TOTAL_DURATION("total_duration");
+
+    private final String key;
+
+    StatsMetric(String key) {
+        this.key = key;
+    }
+
+    /**
+     * 指标在配置文件、数据库列与变量中使用的名称
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 按名称查找指标
+     *
+     * @return 对应的指标，名称无效时返回 null
+     */
+    public static StatsMetric fromKey(String key) {
+        for (StatsMetric metric : values()) {
+            if (metric.key.equalsIgnoreCase(key)) {
+                return metric;
+            }
+        }
+        return null;
+    }
+}
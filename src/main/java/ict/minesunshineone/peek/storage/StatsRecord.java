@@ -0,0 +1,25 @@
+package ict.minesunshineone.peek.storage;
+
+import java.util.UUID;
+
+/**
+ * 单个玩家统计数据的不可变快照，存储层读写统计时使用
+ *
+ * @param uuid          玩家 UUID
+ * @param peekCount     观察次数
+ * @param peekedCount   被观察次数
+ * @param totalDuration 累计观察时长（秒）
+ */
+public record StatsRecord(UUID uuid, int peekCount, int peekedCount, long totalDuration) {
+
+    /**
+     * 读取指定指标的值
+     */
+    public long value(StatsMetric metric) {
+        return switch (metric) {
+            case PEEK_COUNT -> peekCount;
+            case PEEKED_COUNT -> peekedCount;
+            case TOTAL_DURATION -> totalDuration;
+        };
+    }
+}
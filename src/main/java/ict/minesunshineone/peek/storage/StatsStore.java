@@ -0,0 +1,66 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * 统计数据的存储后端
+ * StatisticsManager 只负责计数与调度保存，具体如何落盘由实现决定。
+ * 所有方法都可能执行磁盘 IO，不应在区域线程或全局线程上调用。
+ */
+public interface StatsStore extends Closeable {
+
+    /**
+     * 完成耗时的初始化（连接数据库、解析文件等），在异步线程上调用一次，之后才会调用其他方法
+     */
+    void open() throws IOException;
+
+    /**
+     * 读取全部已保存的记录
+     */
+    void loadAll(Consumer<StatsRecord> consumer) throws IOException;
+
+    /**
+     * 分页读取全部记录，供导出等长时间遍历使用
+     * 只在读取每一页时持有存储的锁，回调在锁外执行，可以写文件；页与页之间保存与加载照常进行，
+     * 遍历期间保存的变化可能读到也可能读不到。
+     *
+     * @param pageSize 每页最多多少条记录
+     */
+    void loadPaged(int pageSize, PageConsumer consumer) throws IOException;
+
+    /**
+     * 读取单个玩家的记录
+     *
+     * @return 玩家的记录，从未记录过时返回 null
+     */
+    StatsRecord load(UUID uuid) throws IOException;
+
+    /**
+     * 保存自上次保存以来发生变化的记录，记录中的值为绝对值
+     */
+    void save(Collection<StatsRecord> changed) throws IOException;
+
+    /**
+     * 按指标从高到低返回前 limit 名
+     */
+    List<StatsRecord> top(StatsMetric metric, int limit) throws IOException;
+
+    /**
+     * 已保存的玩家数量
+     */
+    int size() throws IOException;
+
+    /**
+     * 接收一页记录，可抛出写入时的 IO 异常
+     */
+    @FunctionalInterface
+    interface PageConsumer {
+
+        void accept(List<StatsRecord> page) throws IOException;
+    }
+}
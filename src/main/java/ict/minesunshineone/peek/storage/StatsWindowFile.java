@@ -0,0 +1,119 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import ict.minesunshineone.peek.data.StatsWindow;
+
+/**
+ * 最近 7 天按小时统计的存档文件（stats-window.dat）
+ * 只保存窗口内仍有记录的玩家，因此大小取决于一周内的活跃玩家数，而不是历史玩家总数。
+ *
+ * <p>格式：int 魔数 | byte 版本 | int 玩家数 | 每个玩家（long UUID 高位 | long UUID 低位 | int 长度 | 窗口编码）| int CRC32
+ */
+public final class StatsWindowFile {
+
+    private static final int MAGIC = 0x504B5357; // "PKSW"
+    private static final byte VERSION_1 = 1;
+
+    private final File file;
+
+    public StatsWindowFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 读取全部窗口；文件不存在时不回调
+     */
+    public void load(BiConsumer<UUID, StatsWindow> consumer) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), crc);
+                DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("stats-window.dat 文件头无效");
+            }
+            byte version = in.readByte();
+            if (version != VERSION_1) {
+                throw new IOException(String.format("不支持的 stats-window.dat 版本: %d", version));
+            }
+
+            int count = in.readInt();
+            byte[] bytes = new byte[StatsWindow.maxEncodedSize()];
+            for (int i = 0; i < count; i++) {
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                int length = in.readInt();
+                if (length < 0 || length > bytes.length) {
+                    throw new IOException(String.format("stats-window.dat 中的记录长度无效: %d", length));
+                }
+                in.readFully(bytes, 0, length);
+                consumer.accept(uuid, StatsWindow.decode(ByteBuffer.wrap(bytes, 0, length)));
+            }
+
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("stats-window.dat 校验失败");
+            }
+        }
+    }
+
+    /**
+     * 写入临时文件并 fsync 后原子替换
+     */
+    public void save(Map<UUID, StatsWindow> windows) throws IOException {
+        // 先复制一份，保证写入的数量与实际条目一致
+        Map<UUID, StatsWindow> snapshot = new HashMap<>(windows);
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(StatsWindow.maxEncodedSize());
+
+        try (FileOutputStream fileOut = new FileOutputStream(tmpFile);
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut), crc);
+                DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION_1);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<UUID, StatsWindow> entry : snapshot.entrySet()) {
+                buffer.clear();
+                entry.getValue().encode(buffer);
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeInt(buffer.position());
+                out.write(buffer.array(), 0, buffer.position());
+            }
+            // CRC 只覆盖前面的内容，写入校验值本身前先取值
+            int checksum = (int) crc.getValue();
+            out.writeInt(checksum);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
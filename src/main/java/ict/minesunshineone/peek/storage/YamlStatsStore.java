@@ -0,0 +1,275 @@
+package ict.minesunshineone.peek.storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * 基于 stats.yml 的统计存储（statistics.storage: yaml）
+ * 平时只把变化的记录追加到 stats.delta 增量日志，每隔 snapshotEvery 次保存
+ * 重写一次完整的 stats.yml 并清空增量日志。文件格式无法按需查询，因此全部记录常驻内存，
+ * StatisticsManager 淘汰离线玩家不会减少这里占用的内存；玩家很多的服务器应使用默认的 SqlStatsStore。
+ */
+public class YamlStatsStore implements StatsStore {
+
+    private final File statsFile;
+    private final Logger logger;
+    private final int snapshotEvery;
+    private final Map<UUID, StatsRecord> records = new HashMap<>();
+    private StatsDeltaLog deltaLog;
+    private int savesSinceSnapshot;
+    private boolean loaded;
+
+    public YamlStatsStore(File dataFolder, Logger logger, int snapshotEvery) {
+        this.statsFile = new File(dataFolder, "stats.yml");
+        this.logger = logger;
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        try {
+            this.deltaLog = new StatsDeltaLog(new File(dataFolder, "stats.delta"), logger);
+        } catch (IOException e) {
+            logger.warning(String.format("无法打开统计增量日志，每次保存都将写入完整快照: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * 解析 stats.yml 并回放增量日志
+     */
+    @Override
+    public synchronized void open() throws IOException {
+        ensureLoaded();
+    }
+
+    @Override
+    public synchronized void loadAll(Consumer<StatsRecord> consumer) throws IOException {
+        ensureLoaded();
+        records.values().forEach(consumer);
+    }
+
+    @Override
+    public void loadPaged(int pageSize, PageConsumer consumer) throws IOException {
+        // 只复制 UUID，记录按页在锁内读取
+        UUID[] keys;
+        synchronized (this) {
+            ensureLoaded();
+            keys = records.keySet().toArray(new UUID[0]);
+        }
+
+        for (int from = 0; from < keys.length; from += pageSize) {
+            int to = Math.min(from + pageSize, keys.length);
+            List<StatsRecord> page = new ArrayList<>(to - from);
+            synchronized (this) {
+                for (int i = from; i < to; i++) {
+                    StatsRecord record = records.get(keys[i]);
+                    if (record != null) {
+                        page.add(record);
+                    }
+                }
+            }
+            consumer.accept(page);
+        }
+    }
+
+    @Override
+    public synchronized StatsRecord load(UUID uuid) throws IOException {
+        ensureLoaded();
+        return records.get(uuid);
+    }
+
+    @Override
+    public synchronized void save(Collection<StatsRecord> changed) throws IOException {
+        ensureLoaded();
+        for (StatsRecord record : changed) {
+            records.put(record.uuid(), record);
+        }
+
+        if (deltaLog == null || savesSinceSnapshot >= snapshotEvery) {
+            writeSnapshot();
+            return;
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        for (StatsRecord record : changed) {
+            deltaLog.append(record.uuid(), record.peekCount(), record.peekedCount(), record.totalDuration());
+        }
+        deltaLog.flush();
+        savesSinceSnapshot++;
+    }
+
+    @Override
+    public synchronized List<StatsRecord> top(StatsMetric metric, int limit) throws IOException {
+        ensureLoaded();
+        List<StatsRecord> sorted = new ArrayList<>(records.values());
+        sorted.sort(Comparator.comparingLong((StatsRecord record) -> record.value(metric)).reversed());
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    @Override
+    public synchronized int size() throws IOException {
+        ensureLoaded();
+        return records.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (deltaLog != null) {
+            deltaLog.close();
+        }
+    }
+
+    // ==================== 私有方法 ====================
+
+    private void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+
+        if (statsFile.exists()) {
+            parseStatsFile();
+        }
+
+        // 回放上次快照之后的增量记录（绝对值，后写入的覆盖先写入的）
+        if (deltaLog != null) {
+            deltaLog.replay((uuid, peekCount, peekedCount, totalDuration)
+                    -> records.put(uuid, new StatsRecord(uuid, peekCount, peekedCount, totalDuration)));
+        }
+        // 只有完整读取后才标记为已加载，否则下一次快照会用不完整的数据覆盖 stats.yml
+        loaded = true;
+    }
+
+    /**
+     * 逐行解析 stats.yml，不构建完整的 YAML 树
+     * 只识别本类写出的两层结构（顶层 UUID，缩进的 键: 值），兼容 SnakeYAML 写出的带引号键与空文件 {}。
+     */
+    private void parseStatsFile() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(statsFile.toPath(), StandardCharsets.UTF_8)) {
+            UUID current = null;
+            int peekCount = 0;
+            int peekedCount = 0;
+            long totalDuration = 0;
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.equals("{}")) {
+                    continue;
+                }
+                int colon = trimmed.indexOf(':');
+                if (colon < 0) {
+                    throw new IOException(String.format("stats.yml 第 %d 行格式无效: %s", lineNumber, trimmed));
+                }
+                String key = unquote(trimmed.substring(0, colon).trim());
+
+                if (!Character.isWhitespace(line.charAt(0))) {
+                    if (current != null) {
+                        records.put(current, new StatsRecord(current, peekCount, peekedCount, totalDuration));
+                    }
+                    peekCount = 0;
+                    peekedCount = 0;
+                    totalDuration = 0;
+                    try {
+                        current = UUID.fromString(key);
+                    } catch (IllegalArgumentException e) {
+                        logger.warning(String.format("无效的 UUID: %s", key));
+                        current = null;
+                    }
+                    continue;
+                }
+                if (current == null) {
+                    continue;
+                }
+
+                String value = unquote(trimmed.substring(colon + 1).trim());
+                try {
+                    switch (key) {
+                        case "peek_count" ->
+                            peekCount = Math.max(0, Integer.parseInt(value));
+                        case "peeked_count" ->
+                            peekedCount = Math.max(0, Integer.parseInt(value));
+                        case "total_duration" ->
+                            totalDuration = Math.max(0, Long.parseLong(value));
+                        default -> {
+                            // 忽略未知字段
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    logger.warning(String.format("stats.yml 第 %d 行的数值无效: %s", lineNumber, trimmed));
+                }
+            }
+            if (current != null) {
+                records.put(current, new StatsRecord(current, peekCount, peekedCount, totalDuration));
+            }
+        }
+    }
+
+    private static String unquote(String text) {
+        if (text.length() >= 2) {
+            char first = text.charAt(0);
+            if ((first == '\'' || first == '"') && text.charAt(text.length() - 1) == first) {
+                return text.substring(1, text.length() - 1);
+            }
+        }
+        return text;
+    }
+
+    private void writeSnapshot() throws IOException {
+        writeStatsFile();
+        if (deltaLog == null) {
+            return;
+        }
+        try {
+            deltaLog.reset();
+            savesSinceSnapshot = 0;
+        } catch (IOException e) {
+            // 残留的旧增量记录会在加载时覆盖快照中的新值，清空成功之前每次保存都继续写完整快照
+            logger.warning(String.format("无法清空统计增量日志: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * 写入临时文件并 fsync 后原子替换 stats.yml，崩溃时旧文件保持完整
+     */
+    private void writeStatsFile() throws IOException {
+        File tmpFile = new File(statsFile.getParentFile(), statsFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile);
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (StatsRecord record : records.values()) {
+                writer.write(record.uuid().toString());
+                writer.write(":\n  peek_count: ");
+                writer.write(Integer.toString(record.peekCount()));
+                writer.write("\n  peeked_count: ");
+                writer.write(Integer.toString(record.peekedCount()));
+                writer.write("\n  total_duration: ");
+                writer.write(Long.toString(record.totalDuration()));
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), statsFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), statsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
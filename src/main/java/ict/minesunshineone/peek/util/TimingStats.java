@@ -0,0 +1,44 @@
+package ict.minesunshineone.peek.util;
+
+/**
+ * 耗时统计：记录样本数、最近一次、平滑平均值与最大值
+ * 平均值为指数加权移动平均，更能反映最近的负载。可在任意线程记录与读取。
+ */
+public final class TimingStats {
+
+    private static final double SMOOTHING = 0.1;
+
+    private long count;
+    private long lastNanos;
+    private double averageNanos;
+    private long maxNanos;
+
+    public synchronized void record(long nanos) {
+        averageNanos = count == 0 ? nanos : averageNanos + (nanos - averageNanos) * SMOOTHING;
+        count++;
+        lastNanos = nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(count, lastNanos, (long) averageNanos, maxNanos);
+    }
+
+    /**
+     * 某一时刻的统计副本
+     */
+    public record Snapshot(long count, long lastNanos, long averageNanos, long maxNanos) {
+
+        /**
+         * 以微秒输出 最近/平均/最大，供 /peek metrics 显示
+         */
+        public String[] toPlaceholders() {
+            return new String[]{
+                "count", String.valueOf(count),
+                "last", String.valueOf(lastNanos / 1000),
+                "avg", String.valueOf(averageNanos / 1000),
+                "max", String.valueOf(maxNanos / 1000)
+            };
+        }
+    }
+}